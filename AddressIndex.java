@@ -0,0 +1,150 @@
+/**
+ * Maps base addresses to list nodes. The index is an open-addressing hash table
+ * with linear probing, keyed directly on primitive int addresses, so a lookup
+ * neither boxes the key nor walks a list. Each key maps to at most one node.
+ */
+public class AddressIndex {
+
+	private int[] keys;    // the base address stored in each slot
+	private Node[] nodes;  // the node stored in each slot, or null if the slot is empty
+	private int mask;      // capacity - 1 (the capacity is always a power of two)
+	private int size;      // number of keys in this index
+
+	/**
+	 * Constructs a new, empty index.
+	 */
+	public AddressIndex() {
+		keys = new int[16];
+		nodes = new Node[16];
+		mask = 15;
+		size = 0;
+	}
+
+	/**
+	 * Gets the current number of keys in this index
+	 * @return The number of keys in this index.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the node that is mapped to the given address.
+	 *
+	 * @param address
+	 *        the given base address
+	 * @return the node mapped to the address, or null if there is no such node
+	 */
+	public Node get(int address) {
+		int slot = slotOf(address);
+		while (nodes[slot] != null) {
+			if (keys[slot] == address) {
+				return nodes[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the given address to the given node, unless the address is already
+	 * mapped to some node. In that case, the index is left unchanged.
+	 *
+	 * @param address
+	 *        the given base address
+	 * @param node
+	 *        the node to map the address to
+	 * @return true if the node was added, false if the address was already mapped
+	 */
+	public boolean putIfAbsent(int address, Node node) {
+		int slot = slotOf(address);
+		while (nodes[slot] != null) {
+			if (keys[slot] == address) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = address;
+		nodes[slot] = node;
+		size ++;
+		if (size * 2 > nodes.length) {
+			resize(nodes.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the mapping of the given address.
+	 * The slots that follow the removed slot in its probe run are shifted back,
+	 * so no tombstones are left behind and lookups stay short.
+	 *
+	 * @param address
+	 *        the given base address
+	 * @return the node that was mapped to the address, or null if there was no such node
+	 */
+	public Node remove(int address) {
+		int slot = slotOf(address);
+		while (nodes[slot] != null) {
+			if (keys[slot] == address) {
+				Node removed = nodes[slot];
+				shiftBack(slot);
+				size --;
+				return removed;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Removes all the keys from this index.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(nodes, null);
+		size = 0;
+	}
+
+	// Closes the gap left at the given slot by moving back every following entry
+	// of the same probe run that would otherwise become unreachable.
+	private void shiftBack(int gap) {
+		int slot = (gap + 1) & mask;
+		while (nodes[slot] != null) {
+			int home = slotOf(keys[slot]);
+			// The entry may move into the gap only if its home slot is not
+			// (cyclically) between the gap and its current slot.
+			if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+				keys[gap] = keys[slot];
+				nodes[gap] = nodes[slot];
+				gap = slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		nodes[gap] = null;
+	}
+
+	// Rehashes all the entries into tables of the given capacity.
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Node[] oldNodes = nodes;
+		keys = new int[capacity];
+		nodes = new Node[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldNodes.length; i++) {
+			if (oldNodes[i] != null) {
+				int slot = slotOf(oldKeys[i]);
+				while (nodes[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				nodes[slot] = oldNodes[i];
+			}
+		}
+	}
+
+	// Returns the home slot of the given address. Addresses are often multiples
+	// of common block sizes, so the bits are mixed before masking.
+	private int slotOf(int address) {
+		int h = address * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
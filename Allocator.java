@@ -0,0 +1,32 @@
+/**
+ * The operations of a memory allocator, as used by the test drivers.
+ * Every allocation engine exposes this surface, so a driver that is written
+ * against it can run unchanged against any engine.
+ */
+public interface Allocator {
+
+	/**
+	 * Allocates a memory block of a requested length (in words).
+	 * 
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	int malloc(int length);
+
+	/**
+	 * Frees the memory block whose base address equals the given address.
+	 * If no allocated block starts at the given address, nothing happens.
+	 * 
+	 * @param address
+	 *        the base address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	void free(int address);
+
+	/**
+	 * Merges adjacent free blocks, so that longer blocks become available.
+	 */
+	void defrag();
+}
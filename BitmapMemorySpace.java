@@ -0,0 +1,193 @@
+/**
+ * Represents a managed memory space whose free memory is an occupancy bitmap,
+ * with one bit per word, instead of a list of free blocks.
+ * <p>
+ * The bitmap is a long[], so that each long covers 64 words, and a set bit means
+ * that its word is allocated. malloc looks for the first run of clear bits that is
+ * long enough, starting at the lowest address: it skips whole longs of set bits,
+ * finds the start of a run with numberOfTrailingZeros of the complemented long,
+ * and the end of the run with numberOfTrailingZeros of the long itself, so it
+ * examines 64 words per operation. Since a run ends at the next set bit, adjacent
+ * free words always form a single run, and there is nothing to merge.
+ * <p>
+ * The length of each allocated block is kept in an index from its base address,
+ * so free finds it in constant time, and clears its bits one long at a time, in
+ * O(length / 64) time. For a dense arena of small blocks, the bitmap takes one bit
+ * per word, however fragmented the memory is.
+ */
+public class BitmapMemorySpace implements Allocator {
+
+	// The occupancy bitmap: bit (a % 64) of entry (a / 64) is set if and only if
+	// address a is allocated. The bits past maxSize in the last entry are always set.
+	private long[] bits;
+
+	// The size of the managed memory space, and the number of its free words
+	private int maxSize;
+	private long freeWords;
+
+	// The index of the first entry of the bitmap that may have a clear bit
+	private int firstFree;
+
+	// A list of the memory blocks that are presently allocated
+	private LinkedList allocatedList;
+
+	// Maps the base address of each allocated block to its node in the allocatedList
+	private AddressIndex allocatedIndex;
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public BitmapMemorySpace(int maxSize) {
+		this.maxSize = Math.max(maxSize, 0);
+		bits = new long[(this.maxSize + 63) >>> 6];
+		if ((this.maxSize & 63) != 0) {
+			bits[bits.length - 1] = -1L << this.maxSize;
+		}
+		freeWords = this.maxSize;
+		allocatedList = new LinkedList();
+		allocatedIndex = new AddressIndex();
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). Returns the
+	 * base address of the allocated block, or -1 if unable to allocate.
+	 * The block is the start of the free run with the lowest address that is long
+	 * enough. A request for less than one word is served with a one-word block.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		length = Math.max(length, 1);
+		if (length > freeWords) {
+			return -1;
+		}
+		int start = nextClear(firstFree << 6);
+		while (start >= 0 && maxSize - start >= length) {
+			int end = nextSet(start + 1, start + length);
+			if (end - start == length) {
+				setRange(start, end, true);
+				freeWords -= length;
+				while (firstFree < bits.length && bits[firstFree] == -1L) {
+					firstFree ++;
+				}
+				allocatedList.addLast(new MemoryBlock(start, length));
+				allocatedIndex.putIfAbsent(start, allocatedList.getLast());
+				return start;
+			}
+			start = nextClear(end);
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, by
+	 * clearing its bits in the bitmap.
+	 * If no allocated block starts at the given address, nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	public void free(int address) {
+		if (allocatedList.getSize() == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		Node current = allocatedIndex.remove(address);
+		if (current == null) {
+			return;
+		}
+		allocatedList.remove(current);
+		setRange(address, address + current.block.length, false);
+		freeWords += current.block.length;
+		firstFree = Math.min(firstFree, address >>> 6);
+	}
+
+	/**
+	 * Does nothing: adjacent free words always form a single run of the bitmap,
+	 * so there are never two adjacent free blocks.
+	 */
+	public void defrag() {
+	}
+
+	/**
+	 * Gets the number of free words of this memory space.
+	 *
+	 * @return the number of free words
+	 */
+	public long getFreeWords() {
+		return freeWords;
+	}
+
+	/**
+	 * A textual representation of the free runs of the bitmap (in address order)
+	 * and the allocated list of this memory space, for debugging purposes.
+	 */
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		int start = nextClear(0);
+		while (start >= 0) {
+			int end = nextSet(start + 1, maxSize);
+			str.append(new MemoryBlock(start, end - start)).append(' ');
+			start = nextClear(end);
+		}
+		return str + "\n" + allocatedList.toString();
+	}
+
+	// Returns the lowest free address that is at least the given address, or -1 if
+	// there is none.
+	private int nextClear(int from) {
+		int i = from >>> 6;
+		if (i >= bits.length) {
+			return -1;
+		}
+		long word = ~bits[i] & (-1L << from);
+		while (word == 0) {
+			if (++ i == bits.length) {
+				return -1;
+			}
+			word = ~bits[i];
+		}
+		return (i << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	// Returns the lowest allocated address from the given address (inclusive) to the
+	// given limit (exclusive), or the limit if there is none.
+	private int nextSet(int from, int limit) {
+		int i = from >>> 6;
+		if (i >= bits.length) {
+			return limit;
+		}
+		long word = bits[i] & (-1L << from);
+		while (word == 0) {
+			if (++ i == bits.length || ((long) i << 6) >= limit) {
+				return limit;
+			}
+			word = bits[i];
+		}
+		return (int) Math.min(limit, ((long) i << 6) + Long.numberOfTrailingZeros(word));
+	}
+
+	// Sets or clears the bits of the addresses from the given address (inclusive) to
+	// the given address (exclusive), one entry of the bitmap at a time.
+	private void setRange(int from, int to, boolean allocated) {
+		int first = from >>> 6;
+		int last = (to - 1) >>> 6;
+		for (int i = first; i <= last; i++) {
+			long mask = -1L;
+			if (i == first) {
+				mask &= -1L << from;
+			}
+			if (i == last) {
+				mask &= -1L >>> -to;
+			}
+			bits[i] = allocated ? (bits[i] | mask) : (bits[i] & ~mask);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free pool of fixed-size blocks, carved out of a single region of a
+ * MemorySpace. The region is split into slots of slotLength words, and the free
+ * slots form a stack (a Treiber stack): each free slot holds the index of the next
+ * free slot, and the head of the stack is kept in an AtomicLong. allocate pops a
+ * slot and release pushes one, each with a single compare-and-set of the head, so
+ * any number of threads can use the pool without locks.
+ * <p>
+ * The head packs the index of the top slot (low 32 bits) with a tag (high 32 bits)
+ * that every successful compare-and-set increments. Without the tag, a thread that
+ * read the head and its next index, and then stalled while other threads popped
+ * that slot, popped the next one and pushed the first one back, would succeed in
+ * setting the head to a slot that is no longer free (the ABA problem).
+ * <p>
+ * Each failed compare-and-set means that another thread changed the stack in the
+ * meantime; the pool counts these retries, as a measure of contention.
+ */
+public class BlockPool {
+
+	// The low 32 bits of the head, when the stack is empty
+	private static final int EMPTY = -1;
+
+	// The memory space of the region, and the region's base address
+	private final MemorySpace memory;
+	private final int baseAddress;
+
+	// The length of each slot, and the number of slots
+	private final int slotLength;
+	private final int slotCount;
+
+	// The tag and the index of the top free slot
+	private final AtomicLong head;
+
+	// The index of the free slot below each free slot, or EMPTY. An entry is written
+	// before the compare-and-set that pushes its slot, and read after the read of the
+	// head that popped it, so the head's volatile accesses order it for other threads.
+	private final int[] next;
+
+	// The numbers of failed compare-and-set operations
+	private final LongAdder allocateRetries = new LongAdder();
+	private final LongAdder releaseRetries = new LongAdder();
+
+	/**
+	 * Constructs a pool of the given number of slots of the given length, in a
+	 * region that is allocated from the given memory space. All the slots are free.
+	 * The memory space is used only by this constructor and by close, so it must
+	 * not be used concurrently with them.
+	 *
+	 * @param memory
+	 *        the memory space to allocate the region from
+	 * @param slotLength
+	 *        the length of each slot, in words (at least 1)
+	 * @param slotCount
+	 *        the number of slots (at least 1)
+	 * @throws IllegalArgumentException
+	 *         if the length or the count is not positive, or if the memory space
+	 *         cannot allocate the region
+	 */
+	public BlockPool(MemorySpace memory, int slotLength, int slotCount) {
+		if (slotLength < 1 || slotCount < 1 || (long) slotLength * slotCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("invalid slot length or count");
+		}
+		baseAddress = memory.malloc(slotLength * slotCount);
+		if (baseAddress < 0) {
+			throw new IllegalArgumentException("not enough memory for " + slotCount + " slots");
+		}
+		this.memory = memory;
+		this.slotLength = slotLength;
+		this.slotCount = slotCount;
+		next = new int[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			next[i] = (i + 1 < slotCount) ? i + 1 : EMPTY;
+		}
+		head = new AtomicLong(pack(0, 0));
+	}
+
+	/**
+	 * Allocates a slot of this pool. Returns the base address of the slot, or -1 if
+	 * all the slots are allocated.
+	 *
+	 * @return the base address of the allocated slot, or -1 if unable to allocate
+	 */
+	public int allocate() {
+		while (true) {
+			long current = head.get();
+			int index = (int) current;
+			if (index == EMPTY) {
+				return -1;
+			}
+			if (head.compareAndSet(current, pack((int) (current >>> 32) + 1, next[index]))) {
+				return baseAddress + index * slotLength;
+			}
+			allocateRetries.increment();
+		}
+	}
+
+	/**
+	 * Returns the slot at the given address to this pool. The slot must have been
+	 * returned by allocate, and must not have been released since.
+	 *
+	 * @param address
+	 *        the base address of the slot
+	 * @throws IllegalArgumentException
+	 *         if the address is not the base address of a slot of this pool
+	 */
+	public void release(int address) {
+		int offset = address - baseAddress;
+		if (offset < 0 || offset % slotLength != 0 || offset / slotLength >= slotCount) {
+			throw new IllegalArgumentException("not a slot of this pool: " + address);
+		}
+		int index = offset / slotLength;
+		while (true) {
+			long current = head.get();
+			next[index] = (int) current;
+			if (head.compareAndSet(current, pack((int) (current >>> 32) + 1, index))) {
+				return;
+			}
+			releaseRetries.increment();
+		}
+	}
+
+	/**
+	 * Frees the region of this pool in its memory space. The pool must not be used
+	 * afterwards.
+	 */
+	public void close() {
+		memory.free(baseAddress);
+	}
+
+	/**
+	 * Gets the base address of the region of this pool.
+	 *
+	 * @return the base address of the first slot
+	 */
+	public int getBaseAddress() {
+		return baseAddress;
+	}
+
+	/**
+	 * Gets the length of each slot of this pool.
+	 *
+	 * @return the slot length, in words
+	 */
+	public int getSlotLength() {
+		return slotLength;
+	}
+
+	/**
+	 * Gets the number of slots of this pool.
+	 *
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Gets the number of times that allocate retried its compare-and-set because
+	 * another thread had changed the stack.
+	 *
+	 * @return the number of allocate retries
+	 */
+	public long getAllocateRetries() {
+		return allocateRetries.sum();
+	}
+
+	/**
+	 * Gets the number of times that release retried its compare-and-set because
+	 * another thread had changed the stack.
+	 *
+	 * @return the number of release retries
+	 */
+	public long getReleaseRetries() {
+		return releaseRetries.sum();
+	}
+
+	// Packs a tag and a slot index into a head value.
+	private static long pack(int tag, int index) {
+		return ((long) tag << 32) | (index & 0xFFFFFFFFL);
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Represents a managed memory space that uses the buddy system.
+ * Every block is a power of two words long and is aligned to its length. malloc
+ * rounds the requested length up to a power of two, and splits a larger free block
+ * in halves until a block of that size is obtained. free merges a block with its
+ * buddy (the other half of the block it was split from) as long as the buddy is
+ * free, so the memory space never needs a global defragmentation pass.
+ * Both operations take O(log maxSize) time.
+ * <p>
+ * Rounding the lengths up wastes memory inside the allocated blocks. The number
+ * of words that are wasted this way is reported by getInternalFragmentation.
+ */
+public class BuddyMemorySpace implements Allocator {
+
+	// The number of block orders: a block of order k is 2^k words long
+	private static final int ORDERS = 31;
+
+	// The free blocks of each order
+	private LinkedList[] freeLists;
+
+	// Bit k is set if and only if the free list of order k is non-empty
+	private int nonEmptyOrders;
+
+	// Maps the base address of each free block to its node in its free list
+	private AddressIndex freeIndex;
+
+	// A list of the memory blocks that are presently allocated, with their requested lengths
+	private LinkedList allocatedList;
+
+	// Maps the base address of each allocated block to its node in the allocatedList
+	private AddressIndex allocatedIndex;
+
+	// The number of words that are allocated but were not requested
+	private long internalFragmentation;
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size.
+	 * If the size is not a power of two, the memory is initially split into
+	 * aligned power-of-two blocks, the longest ones first.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public BuddyMemorySpace(int maxSize) {
+		freeLists = new LinkedList[ORDERS];
+		for (int k = 0; k < ORDERS; k++) {
+			freeLists[k] = new LinkedList();
+		}
+		freeIndex = new AddressIndex();
+		allocatedList = new LinkedList();
+		allocatedIndex = new AddressIndex();
+		int baseAddress = 0;
+		int remaining = maxSize;
+		while (remaining > 0) {
+			int length = Integer.highestOneBit(remaining);
+			addFree(baseAddress, Integer.numberOfTrailingZeros(length));
+			baseAddress += length;
+			remaining -= length;
+		}
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). Returns the
+	 * base address of the allocated block, or -1 if unable to allocate.
+	 * The block occupies the smallest power of two words that is at least the
+	 * requested length (and at least one word).
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		int order = orderOf(length);
+		if (order >= ORDERS) {
+			return -1;
+		}
+		int available = nonEmptyOrders & (-1 << order);
+		if (available == 0) {
+			return -1;
+		}
+		int k = Integer.numberOfTrailingZeros(available);
+		int baseAddress = freeLists[k].getFirst().block.baseAddress;
+		removeFree(freeLists[k].getFirst(), k);
+		// Splits the block, keeping the lower half each time
+		while (k > order) {
+			k --;
+			addFree(baseAddress + (1 << k), k);
+		}
+		MemoryBlock newBlock = new MemoryBlock(baseAddress, length);
+		allocatedList.addLast(newBlock);
+		allocatedIndex.putIfAbsent(baseAddress, allocatedList.getLast());
+		internalFragmentation += (1 << order) - length;
+		return baseAddress;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, and
+	 * merges it with its buddy repeatedly, for as long as the buddy is free.
+	 * If no allocated block starts at the given address, nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	public void free(int address) {
+		if (allocatedList.getSize() == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		Node current = allocatedIndex.remove(address);
+		if (current == null) {
+			return;
+		}
+		allocatedList.remove(current);
+		int k = orderOf(current.block.length);
+		internalFragmentation -= (1 << k) - current.block.length;
+		int baseAddress = address;
+		while (k < ORDERS - 1) {
+			Node buddy = freeIndex.get(baseAddress ^ (1 << k));
+			if (buddy == null || buddy.block.length != (1 << k)) {
+				break;
+			}
+			removeFree(buddy, k);
+			baseAddress &= ~(1 << k);
+			k ++;
+		}
+		addFree(baseAddress, k);
+	}
+
+	/**
+	 * Does nothing: buddies are merged as soon as they are freed, so there are
+	 * never two free blocks that could be merged.
+	 */
+	public void defrag() {
+	}
+
+	/**
+	 * Gets the number of words that are allocated but were not requested,
+	 * because the requested lengths were rounded up to powers of two.
+	 *
+	 * @return the internal fragmentation of this memory space, in words
+	 */
+	public long getInternalFragmentation() {
+		return internalFragmentation;
+	}
+
+	/**
+	 * A textual representation of the free lists (from the shortest blocks to the
+	 * longest ones) and the allocated list of this memory space, for debugging purposes.
+	 */
+	public String toString() {
+		String str = "";
+		for (int k = 0; k < ORDERS; k++) {
+			str += freeLists[k].toString();
+		}
+		return str + "\n" + allocatedList.toString();
+	}
+
+	// Returns the order of the smallest block that can hold the given length.
+	private static int orderOf(int length) {
+		if (length <= 1) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(length - 1);
+	}
+
+	// Adds a free block of the given order at the given address.
+	private void addFree(int baseAddress, int order) {
+		freeLists[order].addLast(new MemoryBlock(baseAddress, 1 << order));
+		freeIndex.putIfAbsent(baseAddress, freeLists[order].getLast());
+		nonEmptyOrders |= 1 << order;
+	}
+
+	// Removes the given free-list node, whose block is of the given order.
+	private void removeFree(Node node, int order) {
+		freeIndex.remove(node.block.baseAddress);
+		freeLists[order].remove(node);
+		if (freeLists[order].getSize() == 0) {
+			nonEmptyOrders &= ~(1 << order);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a managed memory space with a per-thread cache of recently freed
+ * small blocks in front of a shared allocator.
+ * <p>
+ * Each thread keeps, for every length from 1 to MAX_CACHED_LENGTH words, a stack
+ * of free blocks of exactly that length. malloc pops a block from the calling
+ * thread's stack when it can, and free pushes the block onto the stack, so most
+ * small allocations touch neither the shared allocator nor its lock. The cached
+ * blocks stay allocated in the shared allocator. When a stack is empty, malloc
+ * refills it with a batch of blocks, taking the shared lock once; when a thread's
+ * cached blocks exceed its cap, free flushes half of the stack back to the shared
+ * allocator, again in one batch. Longer blocks bypass the caches.
+ * <p>
+ * A block may be freed by another thread than the one that allocated it; it then
+ * goes to the freeing thread's cache. The blocks that are cached by a thread stay
+ * reserved until the thread calls flush, so a thread should call flush before it
+ * ends. When the shared allocator cannot serve a malloc, the calling thread's cache
+ * and the caches of the threads that have ended are flushed, and the allocation is
+ * retried. The caches of the other threads are never touched, so their blocks stay
+ * reserved even then.
+ */
+public class CachingMemorySpace implements Allocator {
+
+	// The longest length that is cached
+	private static final int MAX_CACHED_LENGTH = 64;
+
+	// The shared allocator, and the lock that guards it
+	private final Allocator shared;
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// The maximal number of words that each thread caches
+	private final int capWords;
+
+	// The number of blocks that a refill allocates from the shared allocator
+	private final int batchSize;
+
+	// Maps the base address of every block that malloc returned from a cache or
+	// a refill to its length, negated while the block is cached
+	private final ConcurrentHashMap<Integer, Integer> lengths = new ConcurrentHashMap<Integer, Integer>();
+
+	// The cache of each thread
+	private final ThreadLocal<Cache> caches = ThreadLocal.withInitial(() -> register(new Cache()));
+
+	// The caches of all the threads, including threads that ended without a flush
+	private final ConcurrentLinkedQueue<Cache> allCaches = new ConcurrentLinkedQueue<Cache>();
+
+	// The numbers of mallocs that were served by a cache, and by the shared allocator
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Constructs a caching front end for the given allocator. All the calls to the
+	 * allocator are made under a lock that this object holds, so the allocator
+	 * needs no synchronization of its own, and must not be used directly.
+	 *
+	 * @param shared
+	 *        the allocator of all threads
+	 * @param capWords
+	 *        the maximal number of words that each thread caches (at least MAX_CACHED_LENGTH)
+	 * @param batchSize
+	 *        the number of blocks that a refill allocates at once (at least 1)
+	 * @throws IllegalArgumentException
+	 *         if capWords or batchSize is too small
+	 */
+	public CachingMemorySpace(Allocator shared, int capWords, int batchSize) {
+		if (capWords < MAX_CACHED_LENGTH || batchSize < 1) {
+			throw new IllegalArgumentException("capWords must be at least " + MAX_CACHED_LENGTH
+					+ ", and batchSize must be positive");
+		}
+		this.shared = shared;
+		this.capWords = capWords;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). A block of up to
+	 * MAX_CACHED_LENGTH words comes from the calling thread's cache, which is first
+	 * refilled if it has no block of that length. If the shared allocator cannot
+	 * serve the request, the cached blocks that can be reached are flushed (see
+	 * the class description) and the request is retried. Returns the base address
+	 * of the allocated block, or -1 if unable to allocate.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		if (length < 1 || length > MAX_CACHED_LENGTH) {
+			lock.lock();
+			try {
+				int address = shared.malloc(length);
+				if (address < 0 && reclaim(caches.get())) {
+					address = shared.malloc(length);
+				}
+				return address;
+			} finally {
+				lock.unlock();
+			}
+		}
+		Cache cache = caches.get();
+		if (cache.counts[length] == 0) {
+			missCount.incrementAndGet();
+			refill(cache, length);
+			if (cache.counts[length] == 0 && reclaim(cache)) {
+				refill(cache, length);
+			}
+			if (cache.counts[length] == 0) {
+				return -1;
+			}
+		}
+		else {
+			hitCount.incrementAndGet();
+		}
+		int address = cache.pop(length);
+		lengths.put(address, length);
+		return address;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address. A block
+	 * of up to MAX_CACHED_LENGTH words goes to the calling thread's cache, which
+	 * flushes half of its blocks of that length if the thread's cap is exceeded.
+	 * If no allocated block starts at the given address, nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if the shared allocator has no allocated blocks
+	 */
+	public void free(int address) {
+		Integer length = lengths.get(address);
+		if (length == null) {
+			lock.lock();
+			try {
+				shared.free(address);
+			} finally {
+				lock.unlock();
+			}
+			return;
+		}
+		// A negative length means that the block is already cached
+		if (length < 0 || !lengths.replace(address, length, -length)) {
+			return;
+		}
+		Cache cache = caches.get();
+		cache.push(address, length);
+		if (cache.words > capWords) {
+			flush(cache, length, (cache.counts[length] + 1) / 2);
+		}
+	}
+
+	/**
+	 * Flushes the calling thread's cache, and performs defragmentation of the
+	 * shared allocator. The blocks that other threads cache are not merged.
+	 */
+	public void defrag() {
+		flush();
+		lock.lock();
+		try {
+			shared.defrag();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns all the blocks that the calling thread caches to the shared allocator.
+	 * A thread should call this before it ends; otherwise its blocks stay reserved
+	 * until a malloc that the shared allocator cannot serve reclaims them.
+	 */
+	public void flush() {
+		lock.lock();
+		try {
+			flushAll(caches.get());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of mallocs that were served by a thread's cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Gets the number of mallocs of cacheable lengths that found the thread's cache
+	 * empty, and refilled it from the shared allocator.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Gets the number of words that the calling thread caches.
+	 *
+	 * @return the number of cached words
+	 */
+	public int getCachedWords() {
+		return caches.get().words;
+	}
+
+	/**
+	 * A textual representation of the shared allocator, in which cached blocks
+	 * appear as allocated, for debugging purposes.
+	 */
+	public String toString() {
+		lock.lock();
+		try {
+			return shared.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Allocates up to batchSize blocks of the given length into the given cache,
+	// within the cap.
+	private void refill(Cache cache, int length) {
+		int count = Math.max(1, Math.min(batchSize, (capWords - cache.words) / length));
+		lock.lock();
+		try {
+			for (int i = 0; i < count; i++) {
+				int address = shared.malloc(length);
+				if (address < 0) {
+					break;
+				}
+				lengths.put(address, -length);
+				cache.push(address, length);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Adds the given new cache of the calling thread to allCaches, and returns it.
+	// The caches of ended threads that hold no blocks are dropped on the way.
+	private Cache register(Cache cache) {
+		allCaches.removeIf(other -> !other.owner.isAlive() && other.words == 0);
+		allCaches.add(cache);
+		return cache;
+	}
+
+	// Frees all the blocks of the given cache, and of the caches of the threads that
+	// have ended, and returns true if there were any. An ended thread's cache can be
+	// used safely here, since Thread.isAlive orders its last actions before this one.
+	private boolean reclaim(Cache cache) {
+		lock.lock();
+		try {
+			boolean reclaimed = cache.words > 0;
+			flushAll(cache);
+			for (Iterator<Cache> i = allCaches.iterator(); i.hasNext();) {
+				Cache other = i.next();
+				if (!other.owner.isAlive()) {
+					reclaimed |= other.words > 0;
+					flushAll(other);
+					i.remove();
+				}
+			}
+			return reclaimed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Frees all the blocks of the given cache. Called under the lock.
+	private void flushAll(Cache cache) {
+		for (int length = 1; length <= MAX_CACHED_LENGTH; length++) {
+			while (cache.counts[length] > 0) {
+				int address = cache.pop(length);
+				lengths.remove(address);
+				shared.free(address);
+			}
+		}
+	}
+
+	// Frees the given number of the most recently cached blocks of the given length.
+	private void flush(Cache cache, int length, int count) {
+		lock.lock();
+		try {
+			for (int i = 0; i < count; i++) {
+				int address = cache.pop(length);
+				lengths.remove(address);
+				shared.free(address);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The cached blocks of one thread: a stack of base addresses per length.
+	private static class Cache {
+
+		final Thread owner = Thread.currentThread();
+
+		final int[][] stacks = new int[MAX_CACHED_LENGTH + 1][];
+		final int[] counts = new int[MAX_CACHED_LENGTH + 1];
+		int words;
+
+		void push(int address, int length) {
+			if (stacks[length] == null) {
+				stacks[length] = new int[8];
+			}
+			else if (counts[length] == stacks[length].length) {
+				stacks[length] = java.util.Arrays.copyOf(stacks[length], 2 * counts[length]);
+			}
+			stacks[length][counts[length] ++] = address;
+			words += length;
+		}
+
+		int pop(int length) {
+			words -= length;
+			return stacks[length][-- counts[length]];
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Represents a managed memory space that can be compacted.
+ * malloc returns a handle instead of a base address, and the memory space keeps
+ * a table that maps each handle to its allocated block. compact slides all the
+ * allocated blocks down, so that the free memory becomes a single block, and the
+ * handles remain valid: the current base address of a block is given by address.
+ */
+public class CompactingMemorySpace implements Allocator {
+
+	// The memory space that holds the blocks
+	private MemorySpace space;
+
+	// Maps each handle to the allocatedList node of its block (null for unused handles)
+	private Node[] handles;
+
+	// A stack of the handles that were freed and can be reused
+	private int[] freeHandles;
+	private int freeHandleCount;
+
+	// Number of handles that were ever given out (the next new handle)
+	private int handleCount;
+
+	/**
+	 * Constructs a new compacting memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public CompactingMemorySpace(int maxSize) {
+		space = new MemorySpace(maxSize);
+		handles = new Node[16];
+		freeHandles = new int[16];
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), and returns a
+	 * handle to it, or -1 if unable to allocate. If there is enough free memory in
+	 * total but no single free block is long enough, calling compact first makes
+	 * the allocation possible.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return a handle to the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		if (space.malloc(length) == -1) {
+			return -1;
+		}
+		int handle;
+		if (freeHandleCount > 0) {
+			handle = freeHandles[-- freeHandleCount];
+		}
+		else {
+			if (handleCount == handles.length) {
+				handles = java.util.Arrays.copyOf(handles, handles.length * 2);
+			}
+			handle = handleCount ++;
+		}
+		handles[handle] = space.getLastAllocated();
+		return handle;
+	}
+
+	/**
+	 * Frees the memory block of the given handle. The handle may be given out
+	 * again by a later malloc. If the handle is not in use, nothing happens.
+	 *
+	 * @param handle
+	 *            the handle of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	public void free(int handle) {
+		if (handleCount - freeHandleCount == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		if (handle < 0 || handle >= handleCount || handles[handle] == null) {
+			return;
+		}
+		space.free(handles[handle]);
+		handles[handle] = null;
+		if (freeHandleCount == freeHandles.length) {
+			freeHandles = java.util.Arrays.copyOf(freeHandles, freeHandles.length * 2);
+		}
+		freeHandles[freeHandleCount ++] = handle;
+	}
+
+	/**
+	 * Gets the current base address of the block of the given handle.
+	 * The address may change when the memory space is compacted.
+	 *
+	 * @param handle
+	 *            the handle of an allocated block
+	 * @return the base address of the block
+	 * @throws IllegalArgumentException
+	 *         if the handle is not in use
+	 */
+	public int address(int handle) {
+		if (handle < 0 || handle >= handleCount || handles[handle] == null) {
+			throw new IllegalArgumentException("handle is not in use: " + handle);
+		}
+		return handles[handle].block.baseAddress;
+	}
+
+	/**
+	 * Reads a word of the block of the given handle. See MemorySpace.read.
+	 *
+	 * @param handle
+	 *            the handle of an allocated block
+	 * @param offset
+	 *            the offset of the word within the block
+	 * @return the value of the word
+	 */
+	public int read(int handle, int offset) {
+		return space.read(address(handle), offset);
+	}
+
+	/**
+	 * Writes a word of the block of the given handle. See MemorySpace.write.
+	 *
+	 * @param handle
+	 *            the handle of an allocated block
+	 * @param offset
+	 *            the offset of the word within the block
+	 * @param value
+	 *            the value to write
+	 */
+	public void write(int handle, int offset, int value) {
+		space.write(address(handle), offset, value);
+	}
+
+	/**
+	 * Slides all the allocated blocks down, leaving a single free block at the
+	 * end of the memory. See MemorySpace.compact.
+	 */
+	public void compact() {
+		space.compact();
+	}
+
+	/**
+	 * Performs defragmantation of this memory space. See MemorySpace.defrag.
+	 */
+	public void defrag() {
+		space.defrag();
+	}
+
+	/**
+	 * A textual representation of the free list and the allocated list of this
+	 * memory space, for debugging purposes.
+	 */
+	public String toString() {
+		return space.toString();
+	}
+}
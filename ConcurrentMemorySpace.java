@@ -0,0 +1,251 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a managed memory space that can be used by many threads at once.
+ * The address space is split into arenas of (almost) equal sizes, and each arena
+ * is an independent MemorySpace, with its own lock, freeList and allocatedList,
+ * so threads that use different arenas never wait for each other.
+ * <p>
+ * Each thread has a home arena, which is chosen by the thread's hash when the
+ * thread first calls malloc. If the home arena is locked by another thread, malloc
+ * looks for an arena that is not locked, and adopts it as the thread's new home,
+ * so threads spread themselves over the arenas according to contention. If the
+ * home arena cannot satisfy a request, the other arenas are tried in turn.
+ * free finds the arena that owns a block by its address, since every arena covers
+ * a fixed range of addresses. A block never spans two arenas, so a request that is
+ * longer than every arena fails.
+ */
+public class ConcurrentMemorySpace implements Allocator {
+
+	// The arenas, and the first address of each arena's range
+	private final MemorySpace[] arenas;
+	private final int[] bases;
+
+	// The lock of each arena
+	private final ReentrantLock[] locks;
+
+	// The length of every arena's range except the last one, which also gets the remainder
+	private final int arenaSize;
+
+	// The home arena of each thread, or -1 before its first malloc
+	private final ThreadLocal<int[]> homes = ThreadLocal.withInitial(() -> new int[] { -1 });
+
+	// The number of times that a thread found its home arena locked
+	private final AtomicLong contendedCount = new AtomicLong();
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, split into the
+	 * given number of arenas, each in FIRST_FIT mode.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param arenaCount
+	 *            the number of arenas
+	 */
+	public ConcurrentMemorySpace(int maxSize, int arenaCount) {
+		this(maxSize, arenaCount, FitPolicy.FIRST_FIT, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, split into the
+	 * given number of arenas, each with the given placement policy and mode.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param arenaCount
+	 *            the number of arenas (between 1 and maxSize)
+	 * @param policy
+	 *            the placement policy of malloc in each arena
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 * @throws IllegalArgumentException
+	 *         if arenaCount is less than 1 or greater than maxSize
+	 */
+	public ConcurrentMemorySpace(int maxSize, int arenaCount, FitPolicy policy, boolean coalescing) {
+		if (arenaCount < 1 || arenaCount > Math.max(maxSize, 1)) {
+			throw new IllegalArgumentException("arenaCount must be between 1 and maxSize");
+		}
+		arenas = new MemorySpace[arenaCount];
+		bases = new int[arenaCount];
+		locks = new ReentrantLock[arenaCount];
+		arenaSize = maxSize / arenaCount;
+		for (int i = 0; i < arenaCount; i++) {
+			bases[i] = i * arenaSize;
+			int size = (i == arenaCount - 1) ? maxSize - bases[i] : arenaSize;
+			arenas[i] = new MemorySpace(size, policy, coalescing);
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words), in the calling
+	 * thread's home arena if possible, and otherwise in the first other arena that
+	 * can satisfy the request. Returns the base address of the allocated block, or
+	 * -1 if no arena can satisfy the request.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		int[] home = homes.get();
+		if (home[0] < 0) {
+			home[0] = (Thread.currentThread().hashCode() & Integer.MAX_VALUE) % arenas.length;
+		}
+		int arena = lockHome(home);
+		int address;
+		try {
+			address = arenas[arena].malloc(length);
+		} finally {
+			locks[arena].unlock();
+		}
+		if (address >= 0) {
+			return bases[arena] + address;
+		}
+		for (int i = 1; i < arenas.length; i++) {
+			int other = (arena + i) % arenas.length;
+			locks[other].lock();
+			try {
+				address = arenas[other].malloc(length);
+			} finally {
+				locks[other].unlock();
+			}
+			if (address >= 0) {
+				return bases[other] + address;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, in the
+	 * arena whose range contains the address. If no allocated block starts at the
+	 * given address, nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if the arena that owns the address has no allocated blocks
+	 */
+	public void free(int address) {
+		if (address < 0) {
+			return;
+		}
+		int arena = arenaOf(address);
+		locks[arena].lock();
+		try {
+			arenas[arena].free(address - bases[arena]);
+		} finally {
+			locks[arena].unlock();
+		}
+	}
+
+	/**
+	 * Performs defragmentation of each arena, locking one arena at a time.
+	 */
+	public void defrag() {
+		for (int i = 0; i < arenas.length; i++) {
+			locks[i].lock();
+			try {
+				arenas[i].defrag();
+			} finally {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of arenas of this memory space.
+	 *
+	 * @return the number of arenas
+	 */
+	public int getArenaCount() {
+		return arenas.length;
+	}
+
+	/**
+	 * Gets the given arena. The arena must only be used under its lock.
+	 *
+	 * @param arena
+	 *        the index of the arena
+	 * @return the arena's memory space
+	 */
+	MemorySpace getArena(int arena) {
+		return arenas[arena];
+	}
+
+	/**
+	 * Gets the lock of the given arena, which guards its range of addresses.
+	 *
+	 * @param arena
+	 *        the index of the arena
+	 * @return the arena's lock
+	 */
+	ReentrantLock getArenaLock(int arena) {
+		return locks[arena];
+	}
+
+	/**
+	 * Gets the number of times that a malloc found its thread's home arena locked
+	 * by another thread.
+	 *
+	 * @return the number of contended mallocs
+	 */
+	public long getContendedCount() {
+		return contendedCount.get();
+	}
+
+	/**
+	 * A textual representation of the free lists and the allocated lists of this
+	 * memory space (the free blocks of all the arenas, then their allocated blocks),
+	 * with global addresses, for debugging purposes. Each arena is locked while
+	 * its blocks are read.
+	 */
+	public String toString() {
+		StringBuilder free = new StringBuilder();
+		StringBuilder allocated = new StringBuilder();
+		for (int i = 0; i < arenas.length; i++) {
+			locks[i].lock();
+			try {
+				appendBlocks(free, arenas[i].getFreeList(), bases[i]);
+				appendBlocks(allocated, arenas[i].getAllocatedList(), bases[i]);
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return free + "\n" + allocated;
+	}
+
+	// Returns the arena whose range contains the given (non-negative) address.
+	private int arenaOf(int address) {
+		return Math.min(address / Math.max(arenaSize, 1), arenas.length - 1);
+	}
+
+	// Locks the given home arena and returns it. If another thread holds its lock,
+	// locks the first arena that is not locked instead and makes it the new home,
+	// or waits for the home arena if every arena is locked.
+	private int lockHome(int[] home) {
+		int arena = home[0];
+		if (locks[arena].tryLock()) {
+			return arena;
+		}
+		contendedCount.incrementAndGet();
+		for (int i = 1; i < arenas.length; i++) {
+			int other = (arena + i) % arenas.length;
+			if (locks[other].tryLock()) {
+				home[0] = other;
+				return other;
+			}
+		}
+		locks[arena].lock();
+		return arena;
+	}
+
+	private static void appendBlocks(StringBuilder str, LinkedList list, int base) {
+		for (Node node = list.getFirst(); node != null; node = node.next) {
+			str.append('(').append(base + node.block.baseAddress).append(" , ")
+					.append(node.block.length).append(") ");
+		}
+	}
+}
@@ -0,0 +1,212 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A background thread that defragments the arenas of a ConcurrentMemorySpace
+ * while other threads keep allocating and freeing, so that malloc's free-list
+ * scans stay short without malloc paying for defragmentation itself.
+ * <p>
+ * The daemon never stops the whole memory space. Each arena's lock guards one
+ * range of addresses, and the daemon holds one arena's lock at a time, only for a
+ * defragStep of STEP_WORK units of work, so a thread that needs that arena waits
+ * for at most one step. The daemon only takes locks that are free (tryLock), and
+ * skips the arenas that are busy.
+ * <p>
+ * An arena's defragmentation pass starts when its freeList has grown by at least
+ * growthThreshold blocks since its last pass ended (or since the daemon was
+ * constructed), or when intervalMillis have passed since then. Between rounds over
+ * the arenas the daemon sleeps. The sleep is short while there is work to do, and
+ * doubles (up to MAX_SLEEP_MILLIS) after an idle round, or after a round in which
+ * the threads that call malloc contended for arenas, so the daemon backs off when
+ * the mutators are busy.
+ */
+public class DefragDaemon implements Runnable {
+
+	// The units of work of each step, that is, of each holding of an arena's lock
+	private static final int STEP_WORK = 64;
+
+	// The bounds of the sleep between two rounds
+	private static final long MIN_SLEEP_MILLIS = 1;
+	private static final long MAX_SLEEP_MILLIS = 100;
+
+	// The defragmented memory space
+	private final ConcurrentMemorySpace memory;
+
+	// The growth of a freeList that starts a pass, and the time after which a pass
+	// starts anyway (or 0 for no timer)
+	private final int growthThreshold;
+	private final long intervalNanos;
+
+	// For each arena: whether a pass is in progress, the shortest length of its
+	// freeList since its last pass, and the time at which its last pass ended
+	private final boolean[] inPass;
+	private final int[] baseLength;
+	private final long[] lastPassNanos;
+
+	// The daemon thread, and whether it should keep running
+	private Thread thread;
+	private volatile boolean running;
+
+	// Statistics, written only by the daemon thread
+	private volatile long passCount;
+	private volatile long stepCount;
+	private volatile long skippedCount;
+
+	/**
+	 * Constructs a daemon for the given memory space. The daemon does not run
+	 * until start is called.
+	 *
+	 * @param memory
+	 *        the memory space to defragment
+	 * @param growthThreshold
+	 *        the growth of an arena's freeList, in blocks, that starts a pass (at least 1)
+	 * @param intervalMillis
+	 *        the time after which an arena's pass starts regardless of growth, or 0 for no timer
+	 * @throws IllegalArgumentException
+	 *         if growthThreshold is not positive or intervalMillis is negative
+	 */
+	public DefragDaemon(ConcurrentMemorySpace memory, int growthThreshold, long intervalMillis) {
+		if (growthThreshold < 1 || intervalMillis < 0) {
+			throw new IllegalArgumentException("invalid threshold or interval");
+		}
+		this.memory = memory;
+		this.growthThreshold = growthThreshold;
+		this.intervalNanos = intervalMillis * 1000000;
+		int arenaCount = memory.getArenaCount();
+		inPass = new boolean[arenaCount];
+		baseLength = new int[arenaCount];
+		lastPassNanos = new long[arenaCount];
+		long now = System.nanoTime();
+		for (int i = 0; i < arenaCount; i++) {
+			memory.getArenaLock(i).lock();
+			try {
+				baseLength[i] = memory.getArena(i).getFreeList().getSize();
+			} finally {
+				memory.getArenaLock(i).unlock();
+			}
+			lastPassNanos[i] = now;
+		}
+	}
+
+	/**
+	 * Starts the daemon thread.
+	 *
+	 * @throws IllegalStateException
+	 *         if the daemon is already running
+	 */
+	public synchronized void start() {
+		if (running) {
+			throw new IllegalStateException("the daemon is already running");
+		}
+		running = true;
+		thread = new Thread(this, "defrag-daemon");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the daemon thread, and waits for it to end. A step that is in progress
+	 * is completed first.
+	 *
+	 * @throws InterruptedException
+	 *         if the calling thread is interrupted while it waits
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		thread.interrupt();
+		thread.join();
+	}
+
+	/**
+	 * The body of the daemon thread: rounds over the arenas, with sleeps between them.
+	 */
+	public void run() {
+		long sleepMillis = MIN_SLEEP_MILLIS;
+		long contended = memory.getContendedCount();
+		while (running) {
+			boolean worked = runRound();
+			long nowContended = memory.getContendedCount();
+			if (worked && nowContended == contended) {
+				sleepMillis = MIN_SLEEP_MILLIS;
+			}
+			else {
+				sleepMillis = Math.min(2 * sleepMillis, MAX_SLEEP_MILLIS);
+			}
+			contended = nowContended;
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				// stop was called
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of defragmentation passes that the daemon completed.
+	 *
+	 * @return the number of passes
+	 */
+	public long getPassCount() {
+		return passCount;
+	}
+
+	/**
+	 * Gets the number of steps that the daemon performed.
+	 *
+	 * @return the number of steps
+	 */
+	public long getStepCount() {
+		return stepCount;
+	}
+
+	/**
+	 * Gets the number of times that the daemon skipped an arena whose lock was held
+	 * by another thread.
+	 *
+	 * @return the number of skipped arenas
+	 */
+	public long getSkippedCount() {
+		return skippedCount;
+	}
+
+	// Performs one step in every arena that needs one and is not locked, and
+	// returns true if any step was performed.
+	private boolean runRound() {
+		boolean worked = false;
+		for (int i = 0; i < inPass.length; i++) {
+			ReentrantLock lock = memory.getArenaLock(i);
+			if (!lock.tryLock()) {
+				skippedCount ++;
+				continue;
+			}
+			try {
+				MemorySpace arena = memory.getArena(i);
+				int length = arena.getFreeList().getSize();
+				long now = System.nanoTime();
+				if (!inPass[i]) {
+					baseLength[i] = Math.min(baseLength[i], length);
+					boolean grown = length - baseLength[i] >= growthThreshold;
+					boolean due = intervalNanos > 0 && now - lastPassNanos[i] >= intervalNanos;
+					if (!grown && !due) {
+						continue;
+					}
+					inPass[i] = true;
+				}
+				boolean complete = arena.defragStep(STEP_WORK);
+				stepCount ++;
+				worked = true;
+				if (complete) {
+					inPass[i] = false;
+					baseLength[i] = arena.getFreeList().getSize();
+					lastPassNanos[i] = now;
+					passCount ++;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return worked;
+	}
+}
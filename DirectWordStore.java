@@ -0,0 +1,118 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A WordStore that keeps the words outside the Java heap, in direct byte buffers.
+ * The garbage collector never scans or copies the contents of direct buffers, so
+ * even a store of several gigabytes adds nothing to collection pauses. A single
+ * buffer is limited to 2^31 bytes, so the words are kept in chunks of CHUNK_WORDS
+ * words each, and bulk operations are split at chunk boundaries.
+ * <p>
+ * The memory of the buffers is released when the store becomes unreachable.
+ */
+public class DirectWordStore implements WordStore {
+
+	// log2 of the number of words per chunk (a chunk is 1 GiB)
+	private static final int CHUNK_LOG = 28;
+
+	// The number of words per chunk
+	static final int CHUNK_WORDS = 1 << CHUNK_LOG;
+
+	// Masks the index of a word within its chunk
+	private static final int CHUNK_MASK = CHUNK_WORDS - 1;
+
+	// The number of words that move and fill transfer through the heap at a time
+	private static final int BATCH_WORDS = 4096;
+
+	// The chunks of the store, viewed as int buffers in the platform's byte order
+	private final IntBuffer[] chunks;
+
+	/**
+	 * Constructs a new store of the given number of words, all set to zero.
+	 * 
+	 * @param size
+	 *        the number of words in the store
+	 */
+	public DirectWordStore(int size) {
+		chunks = new IntBuffer[(int) (((long) size + CHUNK_WORDS - 1) >>> CHUNK_LOG)];
+		for (int i = 0; i < chunks.length; i++) {
+			int words = Math.min(CHUNK_WORDS, size - (i << CHUNK_LOG));
+			chunks[i] = ByteBuffer.allocateDirect(words * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+	}
+
+	/**
+	 * Constructs a store over the given int buffers. Every buffer but the last
+	 * must hold exactly CHUNK_WORDS words.
+	 * 
+	 * @param chunks
+	 *        the buffers that hold the words
+	 */
+	DirectWordStore(IntBuffer[] chunks) {
+		this.chunks = chunks;
+	}
+
+	public int read(int index) {
+		return chunks[index >>> CHUNK_LOG].get(index & CHUNK_MASK);
+	}
+
+	public void write(int index, int value) {
+		chunks[index >>> CHUNK_LOG].put(index & CHUNK_MASK, value);
+	}
+
+	public void copyIn(int index, int[] source, int sourceOffset, int count) {
+		while (count > 0) {
+			int n = Math.min(count, CHUNK_WORDS - (index & CHUNK_MASK));
+			chunks[index >>> CHUNK_LOG].put(index & CHUNK_MASK, source, sourceOffset, n);
+			index += n;
+			sourceOffset += n;
+			count -= n;
+		}
+	}
+
+	public void copyOut(int index, int[] target, int targetOffset, int count) {
+		while (count > 0) {
+			int n = Math.min(count, CHUNK_WORDS - (index & CHUNK_MASK));
+			chunks[index >>> CHUNK_LOG].get(index & CHUNK_MASK, target, targetOffset, n);
+			index += n;
+			targetOffset += n;
+			count -= n;
+		}
+	}
+
+	public void move(int from, int to, int count) {
+		if (from == to || count == 0) {
+			return;
+		}
+		int[] batch = new int[Math.min(count, BATCH_WORDS)];
+		if (to < from) {
+			// Copies forwards, so no word is overwritten before it is read
+			for (int done = 0; done < count; ) {
+				int n = Math.min(count - done, batch.length);
+				copyOut(from + done, batch, 0, n);
+				copyIn(to + done, batch, 0, n);
+				done += n;
+			}
+		}
+		else {
+			// Copies backwards, for the same reason
+			for (int left = count; left > 0; ) {
+				int n = Math.min(left, batch.length);
+				left -= n;
+				copyOut(from + left, batch, 0, n);
+				copyIn(to + left, batch, 0, n);
+			}
+		}
+	}
+
+	public void fill(int index, int count, int value) {
+		int[] batch = new int[Math.min(count, BATCH_WORDS)];
+		java.util.Arrays.fill(batch, value);
+		for (int done = 0; done < count; ) {
+			int n = Math.min(count - done, batch.length);
+			copyIn(index + done, batch, 0, n);
+			done += n;
+		}
+	}
+}
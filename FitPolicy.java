@@ -0,0 +1,19 @@
+/**
+ * The placement policies that a MemorySpace can use when malloc looks for a free block.
+ */
+public enum FitPolicy {
+	// Scans the freeList from its start, and takes the first block that is long enough
+	FIRST_FIT,
+	// Scans the freeList from where the previous search ended, wrapping around at
+	// its end, and takes the first block that is long enough
+	NEXT_FIT,
+	// Keeps the free blocks in per-size-class lists, and takes a block from the
+	// smallest non-empty class that can satisfy the request
+	SEGREGATED_FIT,
+	// Takes the shortest block that is long enough (the lowest one, if there are several)
+	BEST_FIT,
+	// Takes the block with the lowest address among those that are long enough, found
+	// through a segment tree over the address space; the same block as FIRST_FIT in
+	// coalescing mode
+	ADDRESS_ORDERED_FIT
+}
@@ -0,0 +1,34 @@
+/**
+ * A secondary index over the nodes of a MemorySpace's freeList, used by malloc
+ * to find a suitable free block without scanning the whole list.
+ * The index orders nodes by the base addresses and lengths of their blocks, so a
+ * node must be removed from the index before its block is changed, and added
+ * back afterwards.
+ */
+public interface FreeBlockIndex {
+
+	/**
+	 * Adds the given free-list node to this index.
+	 * 
+	 * @param node
+	 *        the node to add
+	 */
+	void add(Node node);
+
+	/**
+	 * Removes the given free-list node from this index.
+	 * 
+	 * @param node
+	 *        the node to remove
+	 */
+	void remove(Node node);
+
+	/**
+	 * Finds a node whose block is at least as long as the given length.
+	 * 
+	 * @param length
+	 *        the requested length, in words
+	 * @return a node whose block is long enough, or null if there is no such node
+	 */
+	Node find(int length);
+}
@@ -0,0 +1,44 @@
+import java.util.Arrays;
+
+/**
+ * A WordStore that keeps the words in an int array on the Java heap.
+ */
+public class HeapWordStore implements WordStore {
+
+	// The words of the store
+	private final int[] words;
+
+	/**
+	 * Constructs a new store of the given number of words, all set to zero.
+	 * 
+	 * @param size
+	 *        the number of words in the store
+	 */
+	public HeapWordStore(int size) {
+		words = new int[size];
+	}
+
+	public int read(int index) {
+		return words[index];
+	}
+
+	public void write(int index, int value) {
+		words[index] = value;
+	}
+
+	public void copyIn(int index, int[] source, int sourceOffset, int count) {
+		System.arraycopy(source, sourceOffset, words, index, count);
+	}
+
+	public void copyOut(int index, int[] target, int targetOffset, int count) {
+		System.arraycopy(words, index, target, targetOffset, count);
+	}
+
+	public void move(int from, int to, int count) {
+		System.arraycopy(words, from, words, to, count);
+	}
+
+	public void fill(int index, int count, int value) {
+		Arrays.fill(words, index, index + count, value);
+	}
+}
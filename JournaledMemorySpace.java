@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+/**
+ * Represents a managed memory space whose operations are recorded in a write-ahead
+ * journal. Every malloc, free, defrag, defragStep, compact and setAutoDefrag call
+ * appends a record to the journal, and so does every free of a block by its node
+ * (as when a region is closed), and opening the memory space again recovers its
+ * blocks by loading the last checkpoint and replaying the records that follow it.
+ * The contents of the memory are not journaled.
+ * <p>
+ * Records are collected in a buffer and written to the journal file in batches.
+ * Every commitInterval records, the batch is written and the file is forced to the
+ * storage device (a group commit), so a crash loses at most the records since the
+ * last commit. A checkpoint writes a snapshot of the blocks (see MemorySnapshot)
+ * together with the journal position it reflects, so recovery only replays the
+ * journal's tail. The journal itself is never truncated, so it also holds the
+ * complete workload of the memory space, which replay can run against any Allocator.
+ * <p>
+ * The journal file is a header of HEADER_BYTES bytes (MAGIC, maxSize, the policy
+ * and the coalescing mode), followed by records of RECORD_BYTES bytes: an operation
+ * code, its argument (a length, an address, or a work bound), and its result (the
+ * address that malloc returned, or, for a free by node, the rank of the block among
+ * the blocks at its address; see MemorySpace.getAliasRank). The checkpoint file is the journal position and
+ * the autoDefrag mode, followed by a snapshot. All numbers are big-endian.
+ */
+public class JournaledMemorySpace extends MemorySpace implements AutoCloseable {
+
+	// Identifies journal files ("MSJL")
+	private static final int MAGIC = 0x4D534A4C;
+
+	// The length of the journal header, and of each record, in bytes
+	private static final int HEADER_BYTES = 16;
+	private static final int RECORD_BYTES = 9;
+
+	// The length of the checkpoint header, in bytes
+	private static final int CHECKPOINT_HEADER_BYTES = 12;
+
+	// The operation codes of the records
+	private static final byte MALLOC = 1;
+	private static final byte FREE = 2;
+	private static final byte DEFRAG = 3;
+	private static final byte DEFRAG_STEP = 4;
+	private static final byte COMPACT = 5;
+	private static final byte AUTO_DEFRAG = 6;
+	private static final byte FREE_NODE = 7;
+
+	// The size of the record buffer: a whole number of records
+	private static final int BUFFER_BYTES = (1 << 16) / RECORD_BYTES * RECORD_BYTES;
+
+	// The number of records per group commit, unless specified otherwise
+	private static final int DEFAULT_COMMIT_INTERVAL = 256;
+
+	// The journal file, or null while the journal is being replayed
+	private FileChannel journal;
+
+	// The path of the checkpoint file
+	private final Path checkpointPath;
+
+	// The records that have not been written to the journal file yet
+	private final ByteBuffer buffer;
+
+	// The number of records per group commit, and the number since the last one
+	private final int commitInterval;
+	private int uncommitted;
+
+	// The number of group commits
+	private long commitCount;
+
+	// Mirrors the autoDefrag mode, which checkpoints save
+	private boolean autoDefrag;
+
+	/**
+	 * Opens the memory space that is recorded in the given journal, or creates one
+	 * of the given size, in FIRST_FIT mode, if the journal does not exist or is empty.
+	 * Records are committed every DEFAULT_COMMIT_INTERVAL operations.
+	 *
+	 * @param checkpointPath
+	 *        the path of the checkpoint file
+	 * @param journalPath
+	 *        the path of the journal file
+	 * @param maxSize
+	 *        the size of the memory space, if it is created
+	 * @return the opened memory space
+	 * @throws IOException
+	 *         if the files cannot be read or written
+	 */
+	public static JournaledMemorySpace open(String checkpointPath, String journalPath, int maxSize)
+			throws IOException {
+		return open(checkpointPath, journalPath, maxSize, FitPolicy.FIRST_FIT, false, DEFAULT_COMMIT_INTERVAL);
+	}
+
+	/**
+	 * Opens the memory space that is recorded in the given journal, or creates one
+	 * with the given size, policy and mode if the journal does not exist or is empty.
+	 * When an existing memory space is opened, its blocks are recovered from the
+	 * checkpoint (if there is one) and the journal records that follow it, and the
+	 * given size, policy and mode are ignored. A torn record at the end of the
+	 * journal, left by a crash, is discarded.
+	 *
+	 * @param checkpointPath
+	 *        the path of the checkpoint file
+	 * @param journalPath
+	 *        the path of the journal file
+	 * @param maxSize
+	 *        the size of the memory space, if it is created
+	 * @param policy
+	 *        the placement policy of malloc, if the memory space is created
+	 * @param coalescing
+	 *        true for coalescing mode, if the memory space is created
+	 * @param commitInterval
+	 *        the number of operations between two group commits (at least 1)
+	 * @return the opened memory space
+	 * @throws IOException
+	 *         if the files cannot be read or written
+	 * @throws IllegalArgumentException
+	 *         if the journal is not empty and is not a journal file, or if its
+	 *         records do not match the checkpoint
+	 */
+	public static JournaledMemorySpace open(String checkpointPath, String journalPath, int maxSize,
+			FitPolicy policy, boolean coalescing, int commitInterval) throws IOException {
+		if (commitInterval < 1) {
+			throw new IllegalArgumentException("commitInterval must be positive");
+		}
+		Path checkpoint = Paths.get(checkpointPath);
+		FileChannel channel = FileChannel.open(Paths.get(journalPath), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			JournaledMemorySpace space;
+			if (channel.size() < HEADER_BYTES) {
+				// A checkpoint without a journal belongs to an older memory space
+				Files.deleteIfExists(checkpoint);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putInt(maxSize).putInt(policy.ordinal()).putInt(coalescing ? 1 : 0).flip();
+				channel.truncate(0);
+				writeFully(channel, header, 0);
+				channel.force(true);
+				space = new JournaledMemorySpace(maxSize, policy, coalescing, checkpoint, commitInterval);
+			}
+			else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				readFully(channel, header, 0);
+				if (header.getInt(0) != MAGIC) {
+					throw new IllegalArgumentException("not a journal file: " + journalPath);
+				}
+				long position = HEADER_BYTES;
+				if (Files.exists(checkpoint)) {
+					try (InputStream in = Files.newInputStream(checkpoint)) {
+						ByteBuffer checkpointHeader = ByteBuffer.wrap(in.readNBytes(CHECKPOINT_HEADER_BYTES));
+						position = checkpointHeader.getLong();
+						space = new JournaledMemorySpace(new MemorySnapshot(in), checkpoint, commitInterval);
+						space.setAutoDefrag(checkpointHeader.getInt() != 0);
+					}
+				}
+				else {
+					space = new JournaledMemorySpace(header.getInt(4), FitPolicy.values()[header.getInt(8)],
+							header.getInt(12) != 0, checkpoint, commitInterval);
+				}
+				long end = replay(channel, position, space, null);
+				channel.truncate(end);
+			}
+			channel.position(channel.size());
+			space.journal = channel;
+			return space;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the workload that is recorded in the given journal, from its beginning,
+	 * against the given allocator. Each recorded free is applied to the block that
+	 * the allocator returned for the matching malloc. defragStep and setAutoDefrag
+	 * records are applied only if the allocator is a MemorySpace. A compaction moves
+	 * the recorded blocks to addresses that cannot be matched, so the blocks that
+	 * were allocated before a compaction record are never freed by the replay.
+	 *
+	 * @param journalPath
+	 *        the path of the journal file
+	 * @param allocator
+	 *        the allocator to run the workload against
+	 * @throws IOException
+	 *         if the journal cannot be read
+	 * @throws IllegalArgumentException
+	 *         if the file is not a journal file
+	 */
+	public static void replay(String journalPath, Allocator allocator) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(journalPath), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			if (channel.size() < HEADER_BYTES || readFully(channel, header, 0).getInt(0) != MAGIC) {
+				throw new IllegalArgumentException("not a journal file: " + journalPath);
+			}
+			replay(channel, HEADER_BYTES, allocator, new HashMap<Integer, Integer>());
+		}
+	}
+
+	// Constructs a new, empty memory space with the given journal settings.
+	private JournaledMemorySpace(int maxSize, FitPolicy policy, boolean coalescing, Path checkpointPath,
+			int commitInterval) {
+		super(maxSize, policy, coalescing);
+		this.checkpointPath = checkpointPath;
+		this.commitInterval = commitInterval;
+		buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	}
+
+	// Constructs a memory space from a checkpoint's snapshot, with the given journal settings.
+	private JournaledMemorySpace(MemorySnapshot snapshot, Path checkpointPath, int commitInterval) {
+		super(snapshot);
+		this.checkpointPath = checkpointPath;
+		this.commitInterval = commitInterval;
+		buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	}
+
+	public int malloc(int length) {
+		int address = super.malloc(length);
+		append(MALLOC, length, address);
+		return address;
+	}
+
+	public void free(int address) {
+		super.free(address);
+		append(FREE, address, 0);
+	}
+
+	void free(Node node) {
+		int rank = getAliasRank(node);
+		super.free(node);
+		append(FREE_NODE, node.block.baseAddress, rank);
+	}
+
+	public void defrag() {
+		super.defrag();
+		append(DEFRAG, 0, 0);
+	}
+
+	public boolean defragStep(int maxWork) {
+		boolean complete = super.defragStep(maxWork);
+		append(DEFRAG_STEP, maxWork, 0);
+		return complete;
+	}
+
+	public void compact() {
+		super.compact();
+		append(COMPACT, 0, 0);
+	}
+
+	public void setAutoDefrag(boolean autoDefrag) {
+		super.setAutoDefrag(autoDefrag);
+		this.autoDefrag = autoDefrag;
+		append(AUTO_DEFRAG, autoDefrag ? 1 : 0, 0);
+	}
+
+	/**
+	 * Writes the buffered records to the journal file, and forces the file to the
+	 * storage device. Every operation before this call survives a crash after it.
+	 *
+	 * @throws IOException
+	 *         if the journal cannot be written
+	 */
+	public void commit() throws IOException {
+		writeBuffer();
+		journal.force(false);
+		uncommitted = 0;
+		commitCount ++;
+	}
+
+	/**
+	 * Commits the journal, and replaces the checkpoint by a snapshot of the present
+	 * blocks, so that recovery replays only the records that follow this call.
+	 * The new checkpoint is written to a temporary file, which is then renamed over
+	 * the old one, so a crash leaves either the old checkpoint or the new one.
+	 * The blocks and the state of the memory space are not changed.
+	 *
+	 * @throws IOException
+	 *         if the journal or the checkpoint cannot be written
+	 */
+	public void checkpoint() throws IOException {
+		commit();
+		Path temporary = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_BYTES);
+			header.putLong(journal.position()).putInt(autoDefrag ? 1 : 0).flip();
+			writeFully(channel, header, 0);
+			channel.position(CHECKPOINT_HEADER_BYTES);
+			writeSnapshot(channel);
+			channel.force(true);
+		}
+		Files.move(temporary, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Gets the number of group commits of this memory space since it was opened.
+	 *
+	 * @return the number of commits
+	 */
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+	/**
+	 * Commits the journal, and closes its file.
+	 *
+	 * @throws IOException
+	 *         if the journal cannot be written or closed
+	 */
+	public void close() throws IOException {
+		try {
+			commit();
+		} finally {
+			journal.close();
+		}
+	}
+
+	// Appends a record to the buffer, and commits if a group is complete.
+	private void append(byte operation, int argument, int result) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			if (buffer.remaining() < RECORD_BYTES) {
+				writeBuffer();
+			}
+			buffer.put(operation).putInt(argument).putInt(result);
+			uncommitted ++;
+			if (uncommitted >= commitInterval) {
+				commit();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// Writes the buffered records at the end of the journal file.
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			journal.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	// Applies the records of the given journal, from the given position, to the given
+	// allocator, and returns the position that follows the last complete record.
+	// If addresses is null, the allocator recovers the journaled memory space, so every
+	// malloc must return its recorded address; otherwise addresses maps the recorded
+	// addresses of the live blocks to the addresses the allocator returned for them.
+	private static long replay(FileChannel channel, long position, Allocator allocator,
+			HashMap<Integer, Integer> addresses) throws IOException {
+		ByteBuffer records = ByteBuffer.allocate(BUFFER_BYTES);
+		while (true) {
+			records.clear();
+			readFully(channel, records, position);
+			int count = records.remaining() / RECORD_BYTES;
+			for (int i = 0; i < count; i++) {
+				apply(allocator, records.get(), records.getInt(), records.getInt(), addresses);
+			}
+			position += (long) count * RECORD_BYTES;
+			if (count < BUFFER_BYTES / RECORD_BYTES) {
+				return position;
+			}
+		}
+	}
+
+	// Applies one record to the given allocator (see replay).
+	private static void apply(Allocator allocator, byte operation, int argument, int result,
+			HashMap<Integer, Integer> addresses) {
+		if (operation == MALLOC) {
+			int address = allocator.malloc(argument);
+			if (addresses == null && address != result) {
+				throw new IllegalArgumentException("journal does not match its checkpoint");
+			}
+			if (addresses != null && result >= 0 && address >= 0) {
+				addresses.put(result, address);
+			}
+		}
+		else if (operation == FREE_NODE && addresses == null) {
+			Node node = ((MemorySpace) allocator).getAllocated(argument, result);
+			if (node == null) {
+				throw new IllegalArgumentException("journal does not match its checkpoint");
+			}
+			((MemorySpace) allocator).free(node);
+		}
+		else if (operation == FREE || operation == FREE_NODE) {
+			if (addresses == null) {
+				allocator.free(argument);
+			}
+			else {
+				Integer address = addresses.remove(argument);
+				if (address != null) {
+					allocator.free(address);
+				}
+			}
+		}
+		else if (operation == DEFRAG) {
+			allocator.defrag();
+		}
+		else if (operation == COMPACT) {
+			if (allocator instanceof MemorySpace) {
+				((MemorySpace) allocator).compact();
+			}
+			if (addresses != null) {
+				addresses.clear();
+			}
+		}
+		else if (allocator instanceof MemorySpace) {
+			if (operation == DEFRAG_STEP) {
+				((MemorySpace) allocator).defragStep(argument);
+			}
+			else if (operation == AUTO_DEFRAG) {
+				((MemorySpace) allocator).setAutoDefrag(argument != 0);
+			}
+		}
+	}
+
+	// Reads from the given position until the buffer is full or the file ends,
+	// and returns the flipped buffer.
+	private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+}
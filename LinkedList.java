@@ -94,9 +94,11 @@
 			}
 			else if(index == 0){
 				newNode.next = first;
+				first.prev = newNode;
 				first = newNode;
 			} 
 			else if(index == size) {
+				newNode.prev = last;
 				last.next = newNode;
 				last = newNode;
 			}
@@ -108,6 +110,8 @@
 					currentIndex ++;
 				}
 				newNode.next = current.next;
+				newNode.prev = current;
+				current.next.prev = newNode;
 				current.next = newNode;
 			}
 			size ++;
@@ -116,6 +120,7 @@
 	/**
 	 * Creates a new node that points to the given memory block, and adds it
 	 * to the end of this list (the node will become the list's last element).
+	 * The addition time is O(1).
 	 * 
 	 * @param block
 	 *        the given memory block
@@ -127,16 +132,40 @@
 			last = newNode;
 		}
 		else{
-			Node current = first;
-			while(current.next != null) {
-				current = current.next;
-			}
-			current.next = newNode;
+			newNode.prev = last;
+			last.next = newNode;
 			last = newNode;
 		}
 		size ++;
 	}
 	
+	/**
+	 * Creates a new node that points to the given memory block, and inserts it
+	 * just before the given node of this list. If the given node is null, the new
+	 * node becomes the last node in this list. The addition time is O(1).
+	 * 
+	 * @param node
+	 *        the node before which the memory block should be inserted, or null
+	 * @param block
+	 *        the given memory block
+	 */
+	public void addBefore(Node node, MemoryBlock block) {
+		if (node == null) {
+			addLast(block);
+		}
+		else if (node == first) {
+			addFirst(block);
+		}
+		else {
+			Node newNode = new Node(block);
+			newNode.prev = node.prev;
+			newNode.next = node;
+			node.prev.next = newNode;
+			node.prev = newNode;
+			size ++;
+		}
+	}
+
 	/**
 	 * Creates a new node that points to the given memory block, and adds it 
 	 * to the beginning of this list (the node will become the list's first element).
@@ -152,6 +181,7 @@
 		}
 		else {
 			newNode.next = first;
+			first.prev = newNode;
 			first = newNode;
 		}
 		size ++;
@@ -205,35 +235,27 @@
 	}
 
 	/**
-	 * Removes the given node from this list.	
+	 * Removes the given node from this list. The node must belong to this list.
+	 * Since every node knows its predecessor, the removal time is O(1).
 	 * 
 	 * @param node
 	 *        the node that will be removed from this list
 	 */
 	public void remove(Node node) {
-		Node current = first;
-
-		if(node.equals(current)){
-			first = first.next;
-			if (first == null){
-				last = null;
-			}
+		if(node == first){
+			first = node.next;
 		}
-		else if(node.equals(last)){
-			while(current.next != last) {
-				current = current.next;
-			}
-			current.next = null;
-			last = current;
+		else {
+			node.prev.next = node.next;
+		}
+		if(node == last){
+			last = node.prev;
 		}
 		else {
-		while(current.next != null && current.next != node) {
-			current = current.next;
+			node.next.prev = node.prev;
 		}
-		current.next = current.next.next;
+		size --;
 	}
-	size --;
-}
 
 	/**
 	 * Removes from this list the node which is located at the given index.
@@ -275,11 +297,12 @@
 	 */
 	public String toString() {
 	ListIterator itr = this.iterator();
-	String str = "";
+	StringBuilder str = new StringBuilder();
 	while (itr.hasNext()) {
-	str += "(" + itr.current.block.baseAddress + " , " + itr.current.block.length + ") ";
+	str.append('(').append(itr.current.block.baseAddress).append(" , ")
+			.append(itr.current.block.length).append(") ");
 	itr.next();
 	}
-	return str;
+	return str.toString();
 	}
  }
\ No newline at end of file
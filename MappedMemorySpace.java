@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Represents a managed memory space that persists in a memory-mapped file.
+ * The file holds a header, the words of the memory, and an encoding of the free
+ * and allocated lists. The words are mapped into memory, so reads and writes go
+ * straight to the file's pages. The lists live on the heap while the memory space
+ * is open, and are written to the file by sync and close. Opening the file again
+ * maps the words and restores the lists, without replaying any history.
+ * <p>
+ * The file layout is: a header of HEADER_BYTES bytes, then maxSize words of four
+ * bytes each, then the lists. The header holds MAGIC, maxSize, the policy, the
+ * coalescing mode, the position of the next-fit rover, the numbers of free and
+ * allocated blocks, the length of the index order (see MemorySpace.getIndexOrder),
+ * and the state of the incremental defragmentation pass (see
+ * MemorySpace.getDefragCursorIndex and MemorySpace.getIndexProgress), so that
+ * defragStep resumes where it stopped. All the ints of the file, the words
+ * included, are big-endian, so the file does not depend on the host. Each list is a sequence of baseAddress, length pairs, free blocks first, and the
+ * index order follows them. The lists on disk are only as recent as the last sync, and a sync
+ * is not atomic: a crash in the middle of it can leave lists that do not match
+ * the header.
+ */
+public class MappedMemorySpace extends MemorySpace implements AutoCloseable {
+
+	// Identifies the files of memory spaces ("MSPC")
+	private static final int MAGIC = 0x4D535043;
+
+	// The length of the file header, in bytes
+	private static final int HEADER_BYTES = 64;
+
+	// The open file
+	private final FileChannel channel;
+
+	// The mapped chunks of the words region
+	private final MappedByteBuffer[] chunks;
+
+	/**
+	 * Opens the memory space that is stored in the given file, or creates one of
+	 * the given size, in FIRST_FIT mode, if the file does not exist or is empty.
+	 *
+	 * @param path
+	 *        the path of the file
+	 * @param maxSize
+	 *        the size of the memory space, if it is created
+	 * @return the opened memory space
+	 * @throws IOException
+	 *         if the file cannot be opened or mapped
+	 */
+	public static MappedMemorySpace open(String path, int maxSize) throws IOException {
+		return open(path, maxSize, FitPolicy.FIRST_FIT, false);
+	}
+
+	/**
+	 * Opens the memory space that is stored in the given file, or creates one with
+	 * the given size, policy and mode if the file does not exist or is empty.
+	 * When an existing memory space is opened, the size, policy and mode that are
+	 * stored in the file are used, and the given ones are ignored.
+	 *
+	 * @param path
+	 *        the path of the file
+	 * @param maxSize
+	 *        the size of the memory space, if it is created
+	 * @param policy
+	 *        the placement policy of malloc, if the memory space is created
+	 * @param coalescing
+	 *        true for coalescing mode, if the memory space is created
+	 * @return the opened memory space
+	 * @throws IOException
+	 *         if the file cannot be opened or mapped
+	 * @throws IllegalArgumentException
+	 *         if the file is not empty and is not a memory space file
+	 */
+	public static MappedMemorySpace open(String path, int maxSize, FitPolicy policy, boolean coalescing)
+			throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				MappedMemorySpace space = new MappedMemorySpace(channel, maxSize, policy, coalescing);
+				space.sync();
+				return space;
+			}
+			IntBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+					.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			if (header.get(0) != MAGIC) {
+				throw new IllegalArgumentException("not a memory space file: " + path);
+			}
+			MappedMemorySpace space = new MappedMemorySpace(channel, header.get(1),
+					FitPolicy.values()[header.get(2)], header.get(3) != 0);
+			space.load(header.get(4), header.get(5), header.get(6), header.get(7));
+			space.restoreDefragState(header.get(8), header.get(9));
+			return space;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// Constructs a memory space over the given file, mapping its words region.
+	private MappedMemorySpace(FileChannel channel, int maxSize, FitPolicy policy, boolean coalescing)
+			throws IOException {
+		this(channel, mapWords(channel, maxSize), maxSize, policy, coalescing);
+	}
+
+	private MappedMemorySpace(FileChannel channel, MappedByteBuffer[] chunks, int maxSize,
+			FitPolicy policy, boolean coalescing) {
+		super(maxSize, policy, coalescing, new DirectWordStore(asIntBuffers(chunks)));
+		this.channel = channel;
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Writes the free and allocated lists to the file, and forces all the changes
+	 * to the file (the words included) to the storage device.
+	 *
+	 * @throws IOException
+	 *         if the file cannot be written
+	 */
+	public void sync() throws IOException {
+		LinkedList freeList = getFreeList();
+		LinkedList allocatedList = getAllocatedList();
+		int[] indexOrder = getIndexOrder();
+		int indexCount = (indexOrder == null) ? 0 : indexOrder.length;
+		long listsBytes = 8L * (freeList.getSize() + allocatedList.getSize()) + 4L * indexCount;
+		if (listsBytes > 0) {
+			MappedByteBuffer lists = channel.map(FileChannel.MapMode.READ_WRITE, listsOffset(), listsBytes);
+			IntBuffer ints = lists.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			putBlocks(ints, freeList);
+			putBlocks(ints, allocatedList);
+			if (indexOrder != null) {
+				ints.put(indexOrder);
+			}
+			lists.force();
+		}
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+		header.order(ByteOrder.BIG_ENDIAN).asIntBuffer()
+				.put(MAGIC).put(getMaxSize()).put(getPolicy().ordinal()).put(isCoalescing() ? 1 : 0)
+				.put(getRoverIndex()).put(freeList.getSize()).put(allocatedList.getSize()).put(indexCount)
+				.put(getDefragCursorIndex()).put(getIndexProgress());
+		header.force();
+	}
+
+	/**
+	 * Syncs this memory space, and closes its file.
+	 *
+	 * @throws IOException
+	 *         if the file cannot be written or closed
+	 */
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	// Restores the lists, and the index order, from the file.
+	private void load(int roverIndex, int freeCount, int allocatedCount, int indexCount) throws IOException {
+		int[] freeBlocks = new int[2 * freeCount];
+		int[] allocatedBlocks = new int[2 * allocatedCount];
+		int[] indexOrder = (indexCount > 0) ? new int[indexCount] : null;
+		long listsBytes = 8L * (freeCount + allocatedCount) + 4L * indexCount;
+		if (listsBytes > 0) {
+			IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, listsOffset(), listsBytes)
+					.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			ints.get(freeBlocks);
+			ints.get(allocatedBlocks);
+			if (indexOrder != null) {
+				ints.get(indexOrder);
+			}
+		}
+		restore(freeBlocks, freeCount, allocatedBlocks, allocatedCount, roverIndex, indexOrder);
+	}
+
+	// Returns the offset in the file of the lists, which follow the words region.
+	private long listsOffset() {
+		return HEADER_BYTES + 4L * getMaxSize();
+	}
+
+	// Writes the baseAddress, length pairs of the given list.
+	private static void putBlocks(IntBuffer ints, LinkedList list) {
+		for (Node node = list.getFirst(); node != null; node = node.next) {
+			ints.put(node.block.baseAddress).put(node.block.length);
+		}
+	}
+
+	// Maps the words region of the given file in chunks, growing the file if needed.
+	private static MappedByteBuffer[] mapWords(FileChannel channel, int maxSize) throws IOException {
+		int count = (int) (((long) maxSize + DirectWordStore.CHUNK_WORDS - 1) / DirectWordStore.CHUNK_WORDS);
+		MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long first = (long) i * DirectWordStore.CHUNK_WORDS;
+			long words = Math.min(DirectWordStore.CHUNK_WORDS, maxSize - first);
+			chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 4 * first, 4 * words);
+		}
+		return chunks;
+	}
+
+	private static IntBuffer[] asIntBuffers(MappedByteBuffer[] chunks) {
+		IntBuffer[] ints = new IntBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			ints[i] = chunks[i].order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		}
+		return ints;
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * A region of a MemorySpace, for blocks that are freed all together.
+ * <p>
+ * A region is a chunk of memory that MemorySpace.openRegion allocates as a single
+ * block. malloc bump-allocates from the chunk: it gives out the words that follow
+ * the previous block, and moves the top of the region past them, without touching
+ * the memory space's lists. The blocks of a region are never freed one at a time.
+ * reset gives all of them back to the region at once, and MemorySpace.closeRegion
+ * returns the whole chunk to the freeList with a single free, however many blocks
+ * were allocated in it. Freeing the chunk's base address through the memory space
+ * closes the region as well.
+ * <p>
+ * To the memory space, the region is the single block of its chunk, so its word
+ * methods (read, write, copyIn and the like) accept only the chunk's base address.
+ * The words of the region's blocks are read and written through the region's own
+ * read and write methods, which take the addresses that its malloc returned.
+ * <p>
+ * The region follows its chunk, so when the memory space is compacted, the blocks
+ * of the region move with the chunk, and later blocks are allocated at the new place.
+ */
+public class MemoryRegion {
+
+	// The memory space of the region, and the allocatedList node of its chunk
+	private final MemorySpace memory;
+	private final Node chunk;
+
+	// The offset in the chunk of the next block
+	private int top;
+
+	// The number of blocks that were allocated since the region was opened or reset
+	private int blockCount;
+
+	// Whether the chunk was returned to the memory space
+	private boolean closed;
+
+	/**
+	 * Constructs a region over the given allocated chunk of the given memory space.
+	 * Regions are opened through MemorySpace.openRegion.
+	 *
+	 * @param memory
+	 *        the memory space of the region
+	 * @param chunk
+	 *        the allocatedList node of the region's chunk
+	 */
+	MemoryRegion(MemorySpace memory, Node chunk) {
+		this.memory = memory;
+		this.chunk = chunk;
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words) from this region.
+	 * Returns the base address of the allocated block, or -1 if the rest of the
+	 * region is shorter than the requested length.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 * @throws IllegalStateException
+	 *         if the region is closed
+	 */
+	public int malloc(int length) {
+		checkOpen();
+		if (length < 0 || length > chunk.block.length - top) {
+			return -1;
+		}
+		int address = chunk.block.baseAddress + top;
+		top += length;
+		blockCount ++;
+		return address;
+	}
+
+	/**
+	 * Frees all the blocks of this region at once, in constant time. The chunk stays
+	 * allocated, and the next block is allocated at its start.
+	 *
+	 * @throws IllegalStateException
+	 *         if the region is closed
+	 */
+	public void reset() {
+		checkOpen();
+		top = 0;
+		blockCount = 0;
+	}
+
+	/**
+	 * Reads a word of a block of this region.
+	 *
+	 * @param address
+	 *        the base address of the block, as returned by malloc
+	 * @param offset
+	 *        the offset of the word within the block
+	 * @return the value of the word
+	 * @throws IllegalArgumentException
+	 *         if the word is not within the allocated part of the region
+	 * @throws IllegalStateException
+	 *         if the region is closed
+	 */
+	public int read(int address, int offset) {
+		return memory.read(chunk.block.baseAddress, chunkOffset(address, offset));
+	}
+
+	/**
+	 * Writes a word of a block of this region.
+	 *
+	 * @param address
+	 *        the base address of the block, as returned by malloc
+	 * @param offset
+	 *        the offset of the word within the block
+	 * @param value
+	 *        the value to write
+	 * @throws IllegalArgumentException
+	 *         if the word is not within the allocated part of the region
+	 * @throws IllegalStateException
+	 *         if the region is closed
+	 */
+	public void write(int address, int offset, int value) {
+		memory.write(chunk.block.baseAddress, chunkOffset(address, offset), value);
+	}
+
+	/**
+	 * Gets the base address of the chunk of this region.
+	 *
+	 * @return the base address of the chunk
+	 */
+	public int getBaseAddress() {
+		return chunk.block.baseAddress;
+	}
+
+	/**
+	 * Gets the length of the chunk of this region.
+	 *
+	 * @return the capacity of the region, in words
+	 */
+	public int getCapacity() {
+		return chunk.block.length;
+	}
+
+	/**
+	 * Gets the number of words of this region that are allocated.
+	 *
+	 * @return the number of allocated words
+	 */
+	public int getUsedWords() {
+		return top;
+	}
+
+	/**
+	 * Gets the number of blocks that were allocated from this region since it was
+	 * opened or last reset.
+	 *
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Checks if this region was closed.
+	 *
+	 * @return true if the chunk of the region was returned to its memory space
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	// Returns the allocatedList node of the chunk of this region, if the region
+	// belongs to the given memory space and is open.
+	Node getChunk(MemorySpace owner) {
+		if (owner != memory) {
+			throw new IllegalArgumentException("the region belongs to another memory space");
+		}
+		checkOpen();
+		return chunk;
+	}
+
+	// Marks this region as closed, after its chunk was freed.
+	void close() {
+		closed = true;
+	}
+
+	// Returns the offset in the chunk of the word at the given offset of the block at
+	// the given address, if the word lies in the allocated part of this open region.
+	private int chunkOffset(int address, int offset) {
+		checkOpen();
+		int start = address - chunk.block.baseAddress;
+		if (start < 0 || start >= top || offset < 0 || offset >= top - start) {
+			throw new IllegalArgumentException(
+					"no allocated word of the region at address " + address + " and offset " + offset);
+		}
+		return start + offset;
+	}
+
+	// Throws an exception if this region is closed.
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("the region is closed");
+		}
+	}
+}
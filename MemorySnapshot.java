@@ -0,0 +1,204 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A saved state of a MemorySpace: its size, policy and mode, the position of its
+ * next-fit rover, the progress of its incremental defragmentation, and its free
+ * and allocated lists. The contents of the memory are not part of the state.
+ * <p>
+ * The binary format is MAGIC, followed by a sequence of variable-length integers
+ * (7 bits per byte, least significant group first, high bit set on all bytes but
+ * the last): maxSize, the policy's ordinal, the coalescing mode (0 or 1), the
+ * rover's index plus one, the defragmentation cursor's index plus one, the progress
+ * of defragStep's address index (see MemorySpace.getIndexProgress), the number of
+ * free blocks, the free blocks, the number
+ * of allocated blocks and the allocated blocks. Each block is written as the
+ * difference between its base address and the base address of the previous block
+ * of the same list (zigzag-encoded, since it may be negative), followed by its
+ * length. Neighboring blocks in a list are usually close to each other, so most
+ * blocks take two to four bytes. The snapshot ends with the number of entries of
+ * the memory space's index order (zero if its policy does not need one), and the
+ * entries: the freeList positions of the free blocks in the order in which the
+ * policy's index considers them.
+ */
+public class MemorySnapshot {
+
+	// Identifies snapshots ("MSNP")
+	private static final int MAGIC = 0x4D534E50;
+
+	// The size of the buffers used for writing and reading
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	int maxSize;
+	FitPolicy policy;
+	boolean coalescing;
+	int roverIndex;         // the position of the rover's node in the free list, or -1
+	int defragCursorIndex;  // the position of the defragCursor's node in the free list, or -1
+	int indexProgress;      // see MemorySpace.getIndexProgress
+	int[] freeBlocks;       // baseAddress, length pairs
+	int freeCount;
+	int[] allocatedBlocks;  // baseAddress, length pairs
+	int allocatedCount;
+	int[] indexOrder;       // see MemorySpace.getIndexOrder, or null
+
+	// The input buffer, and the positions of the next byte and of the end of its data
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private InputStream in;
+
+	/**
+	 * Reads a snapshot from the given stream. The stream is read up to the end of
+	 * the snapshot, and possibly beyond it.
+	 *
+	 * @param in
+	 *        the stream to read from
+	 * @throws IOException
+	 *         if the stream cannot be read, or ends before the end of the snapshot
+	 * @throws IllegalArgumentException
+	 *         if the stream does not hold a snapshot
+	 */
+	public MemorySnapshot(InputStream in) throws IOException {
+		this.in = in;
+		buffer = new byte[BUFFER_BYTES];
+		int magic = 0;
+		for (int i = 0; i < 4; i++) {
+			magic = (magic << 8) | readByte();
+		}
+		if (magic != MAGIC) {
+			throw new IllegalArgumentException("not a memory space snapshot");
+		}
+		maxSize = readVarint();
+		policy = FitPolicy.values()[readVarint()];
+		coalescing = readVarint() != 0;
+		roverIndex = readVarint() - 1;
+		defragCursorIndex = readVarint() - 1;
+		indexProgress = readVarint();
+		freeCount = readVarint();
+		freeBlocks = readBlocks(freeCount);
+		allocatedCount = readVarint();
+		allocatedBlocks = readBlocks(allocatedCount);
+		int indexCount = readVarint();
+		if (indexCount > 0) {
+			indexOrder = new int[indexCount];
+			for (int i = 0; i < indexCount; i++) {
+				indexOrder[i] = readVarint();
+			}
+		}
+		buffer = null;
+		this.in = null;
+	}
+
+	/**
+	 * Writes a snapshot of the given memory space to the given stream.
+	 * The stream is not flushed or closed.
+	 *
+	 * @param space
+	 *        the memory space to save
+	 * @param out
+	 *        the stream to write to
+	 * @throws IOException
+	 *         if the stream cannot be written
+	 */
+	public static void write(MemorySpace space, OutputStream out) throws IOException {
+		Encoder encoder = new Encoder(out);
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			encoder.writeByte(MAGIC >>> shift);
+		}
+		encoder.writeVarint(space.getMaxSize());
+		encoder.writeVarint(space.getPolicy().ordinal());
+		encoder.writeVarint(space.isCoalescing() ? 1 : 0);
+		encoder.writeVarint(space.getRoverIndex() + 1);
+		encoder.writeVarint(space.getDefragCursorIndex() + 1);
+		encoder.writeVarint(space.getIndexProgress());
+		encoder.writeBlocks(space.getFreeList());
+		encoder.writeBlocks(space.getAllocatedList());
+		int[] indexOrder = space.getIndexOrder();
+		encoder.writeVarint((indexOrder == null) ? 0 : indexOrder.length);
+		for (int i = 0; indexOrder != null && i < indexOrder.length; i++) {
+			encoder.writeVarint(indexOrder[i]);
+		}
+		encoder.flush();
+	}
+
+	// Reads the given number of delta-encoded blocks.
+	private int[] readBlocks(int count) throws IOException {
+		int[] blocks = new int[2 * count];
+		int baseAddress = 0;
+		for (int i = 0; i < count; i++) {
+			int delta = readVarint();
+			baseAddress += (delta >>> 1) ^ -(delta & 1);
+			blocks[2 * i] = baseAddress;
+			blocks[2 * i + 1] = readVarint();
+		}
+		return blocks;
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				throw new EOFException("snapshot is truncated");
+			}
+		}
+		return buffer[position ++] & 0xFF;
+	}
+
+	// Writes the variable-length encoding into a buffer, and the buffer into a stream.
+	private static class Encoder {
+
+		private final OutputStream out;
+		private final byte[] buffer = new byte[BUFFER_BYTES];
+		private int position;
+
+		Encoder(OutputStream out) {
+			this.out = out;
+		}
+
+		void writeBlocks(LinkedList list) throws IOException {
+			writeVarint(list.getSize());
+			int previous = 0;
+			for (Node node = list.getFirst(); node != null; node = node.next) {
+				int delta = node.block.baseAddress - previous;
+				writeVarint((delta << 1) ^ (delta >> 31));
+				writeVarint(node.block.length);
+				previous = node.block.baseAddress;
+			}
+		}
+
+		void writeVarint(int value) throws IOException {
+			while ((value & ~0x7F) != 0) {
+				writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			writeByte(value);
+		}
+
+		void writeByte(int b) throws IOException {
+			if (position == buffer.length) {
+				flush();
+			}
+			buffer[position ++] = (byte) b;
+		}
+
+		void flush() throws IOException {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
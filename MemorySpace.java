@@ -1,9 +1,18 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Represents a managed memory space. The memory space manages a list of allocated 
  * memory blocks, and a list free memory blocks. The methods "malloc" and "free" are 
  * used, respectively, for creating new blocks and recycling existing blocks.
  */
-public class MemorySpace {
+public class MemorySpace implements Allocator {
+
+	// Units of work that defragWithin performs between two readings of the clock
+	private static final int DEFRAG_BATCH = 64;
 	
 	// A list of the memory blocks that are presently allocated
 	private LinkedList allocatedList;
@@ -11,6 +20,90 @@ public class MemorySpace {
 	// A list of memory blocks that are presently free
 	private LinkedList freeList;
 
+	// Maps the base address of each allocated block to its node in the allocatedList
+	private AddressIndex allocatedIndex;
+
+	// The placement policy that malloc uses
+	private FitPolicy policy;
+
+	// An index over the freeList nodes, used by malloc to find free blocks
+	// (null if the policy scans the freeList itself)
+	private FreeBlockIndex freeIndex;
+
+	// The freeList node at which the next NEXT_FIT search starts (null means the first node)
+	private Node rover;
+
+	// Number of calls to malloc, and number of freeList nodes that their scans examined
+	private long mallocCount;
+	private long nodesScanned;
+
+	// Whether a failing malloc defragments the memory and retries (see setAutoDefrag)
+	private boolean autoDefrag;
+
+	// Number of times that a failing malloc defragmented the memory, how many of
+	// these times the retry succeeded, and the total time spent doing it
+	private long autoDefragCount;
+	private long autoDefragSuccesses;
+	private long autoDefragNanos;
+
+	// Maps the base address of each non-empty free block to its freeList node. Created
+	// with the memory space in coalescing mode, and otherwise built by the first calls
+	// to defragStep; maintained from then on (null until then).
+	private AddressIndex freeStarts;
+
+	// The freeList node from which defragStep resumes building freeStarts, or null
+	// once it has indexed every node that was there when freeStarts was created
+	private Node indexCursor;
+
+	// Maps the end address of each non-empty free block to its freeList node, in
+	// coalescing mode (null otherwise)
+	private AddressIndex freeEnds;
+
+	// The freeList nodes ordered by base address, used in coalescing mode to find the
+	// place of a freed block that has no free neighbor (null in other modes, and in
+	// ADDRESS_ORDERED_FIT mode, where the segment tree finds that place)
+	private java.util.TreeSet<Node> freeOrder;
+
+	// A search key, reused by releaseCoalesced so that lookups in freeOrder do not allocate
+	private Node orderProbe;
+
+	// The freeList node at which the next defragStep resumes (null means the first node)
+	private Node defragCursor;
+
+	// The total length of the free blocks
+	private long freeWords;
+
+	// An upper bound on the length of the longest free block, or -1 if there are no
+	// free blocks. Raised whenever a free block is added or grows, and made exact
+	// again by every scan that visits the whole freeList without finding a block.
+	private int maxFreeLength = -1;
+
+	// Number of mallocs that were rejected by comparing their length with maxFreeLength
+	private long fastRejections;
+
+	// The size of the managed memory space
+	private int maxSize;
+
+	// The contents of the memory (created on first access, unless given to the constructor)
+	private WordStore words;
+
+	// Number of words that were read from and written to the memory
+	private long wordsRead;
+	private long wordsWritten;
+
+	// Whether the freeList is kept sorted by base address, with every freed block
+	// merged into its free neighbors (see the releaseCoalesced method)
+	private boolean coalescing;
+
+	// Maps each base address that is shared by several allocated blocks (only
+	// zero-length blocks can share their address with an older block) to the blocks
+	// at that address that are missing from the allocatedIndex, oldest first.
+	// Empty unless such blocks exist, so free only consults it when it is not empty.
+	private java.util.HashMap<Integer, java.util.ArrayList<Node>> aliases;
+
+	// Maps the allocatedList node of the chunk of each open region to the region
+	private java.util.IdentityHashMap<Node, MemoryRegion> regions;
+
 	/**
 	 * Constructs a new managed memory space of a given maximal size.
 	 * 
@@ -18,13 +111,142 @@ public class MemorySpace {
 	 *            the size of the memory space to be managed
 	 */
 	public MemorySpace(int maxSize) {
+		this(maxSize, FitPolicy.FIRST_FIT, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, optionally
+	 * in coalescing mode. In coalescing mode the freeList is kept sorted by base
+	 * address, and free merges every freed block with its free left and right
+	 * neighbors immediately, so no two free blocks are ever adjacent and defrag
+	 * has nothing left to do.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 */
+	public MemorySpace(int maxSize, boolean coalescing) {
+		this(maxSize, FitPolicy.FIRST_FIT, coalescing);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, whose malloc
+	 * uses the given placement policy.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy of malloc
+	 */
+	public MemorySpace(int maxSize, FitPolicy policy) {
+		this(maxSize, policy, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, whose malloc
+	 * uses the given placement policy, optionally in coalescing mode.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy of malloc
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 */
+	public MemorySpace(int maxSize, FitPolicy policy, boolean coalescing) {
+		this(maxSize, policy, coalescing, null);
+	}
+
+	/**
+	 * Constructs a managed memory space from a snapshot that was written by
+	 * writeSnapshot. The new memory space has the size, policy, mode and blocks of
+	 * the saved one; its contents are zeros.
+	 * 
+	 * @param in
+	 *            the stream to read the snapshot from
+	 * @throws IOException
+	 *         if the stream cannot be read, or ends before the end of the snapshot
+	 * @throws IllegalArgumentException
+	 *         if the stream does not hold a snapshot
+	 */
+	public MemorySpace(InputStream in) throws IOException {
+		this(new MemorySnapshot(in));
+	}
+
+	/**
+	 * Constructs a managed memory space with the size, policy, mode, blocks and
+	 * incremental defragmentation state of the given snapshot.
+	 * 
+	 * @param snapshot
+	 *            the snapshot to restore
+	 */
+	MemorySpace(MemorySnapshot snapshot) {
+		this(snapshot.maxSize, snapshot.policy, snapshot.coalescing, null);
+		restore(snapshot.freeBlocks, snapshot.freeCount, snapshot.allocatedBlocks, snapshot.allocatedCount,
+				snapshot.roverIndex, snapshot.indexOrder);
+		restoreDefragState(snapshot.defragCursorIndex, snapshot.indexProgress);
+	}
+
+	/**
+	 * Constructs a new managed memory space whose contents are kept in the given
+	 * store. If the store is null, a HeapWordStore is created on first access.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy of malloc
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 * @param words
+	 *            the store of the contents of the memory, or null
+	 */
+	MemorySpace(int maxSize, FitPolicy policy, boolean coalescing, WordStore words) {
+		this.maxSize = maxSize;
+		this.words = words;
+		this.policy = policy;
+		this.coalescing = coalescing;
+		freeIndex = newFreeIndex(policy, maxSize);
+		if (coalescing) {
+			createNeighborIndexes();
+		}
 		// initiallizes an empty list of allocated blocks.
 		allocatedList = new LinkedList();
+		allocatedIndex = new AddressIndex();
+		aliases = new java.util.HashMap<Integer, java.util.ArrayList<Node>>();
+		regions = new java.util.IdentityHashMap<Node, MemoryRegion>();
 	    // Initializes a free list containing a single block which represents
 	    // the entire memory. The base address of this single initial block is
 	    // zero, and its length is the given memory size.
 		freeList = new LinkedList();
-		freeList.addLast(new MemoryBlock(0, maxSize));
+		insertFree(null, new MemoryBlock(0, maxSize));
+	}
+
+	// Returns a new, empty freeIndex for the given policy and memory size, or null if
+	// the policy scans the freeList itself.
+	private static FreeBlockIndex newFreeIndex(FitPolicy policy, int maxSize) {
+		if (policy == FitPolicy.SEGREGATED_FIT) {
+			return new SizeClassIndex();
+		}
+		if (policy == FitPolicy.BEST_FIT) {
+			return new SizeOrderedIndex();
+		}
+		if (policy == FitPolicy.ADDRESS_ORDERED_FIT) {
+			return new SegmentTreeIndex(maxSize);
+		}
+		return null;
+	}
+
+	// Creates the empty indexes by which coalescing mode finds the free neighbors of
+	// a freed block, and its place in the freeList.
+	private void createNeighborIndexes() {
+		freeStarts = new AddressIndex();
+		freeEnds = new AddressIndex();
+		if (policy != FitPolicy.ADDRESS_ORDERED_FIT) {
+			freeOrder = new java.util.TreeSet<Node>(
+					(a, b) -> Integer.compare(a.block.baseAddress, b.block.baseAddress));
+			orderProbe = new Node(new MemoryBlock(0, 0));
+		}
 	}
 
 	/**
@@ -53,6 +275,13 @@ public class MemorySpace {
 	 * If the length of the found block is exactly the same as the requested length, 
 	 * then the found block is removed from the freeList and appended to the allocatedList.
 	 * 
+	 * The description above is of the FIRST_FIT policy. The other policies of FitPolicy
+	 * find the free block through the freeIndex instead of scanning the freeList.
+	 * 
+	 * A request that is longer than every free block is rejected in constant time,
+	 * without a search, by comparing it with a running maximum of the free-block lengths
+	 * (in auto defragmentation mode, the search is skipped but defragmentation is tried).
+	 * 
 	 * @param length
 	 *        the length (in words) of the memory block that has to be allocated
 	 * @return the base address of the allocated block, or -1 if unable to allocate
@@ -64,48 +293,1001 @@ public class MemorySpace {
  * are used for creating new blocks and recycling existing blocks, respectively.
  */
     public int malloc(int length) {		
-        Node current = freeList.getFirst();
-        while(current != null && current.block.length < length) {
-            current = current.next;
+        mallocCount ++;
+        // No free block is long enough, so only automatic defragmentation can help
+        boolean tooLong = length > maxFreeLength;
+        if (tooLong && !autoDefrag) {
+            fastRejections ++;
+            return -1;
+        }
+        Node current = tooLong ? null : findFree(length);
+        if(current == null && autoDefrag && length > 0){
+            current = defragFor(length);
         }
         if(current == null){
+            // Every free block is shorter than the given length
+            maxFreeLength = Math.min(maxFreeLength, Math.max(length, 0) - 1);
             return -1;
         }
         MemoryBlock newBlock = new MemoryBlock(current.block.baseAddress, length);
         if(current.block.length == length) {
-            freeList.remove(current);
+            removeFree(current);
         }
         else {
-            current.block.baseAddress += length;
-            current.block.length -= length;
+            resizeFree(current, current.block.baseAddress + length, current.block.length - length);
         }
         allocatedList.addLast(newBlock);
+        indexAllocated(allocatedList.getLast());
         return newBlock.baseAddress;
     }
 
+    // Returns a free-list node whose block is at least as long as the given length,
+    // chosen according to the placement policy, or null if there is no such node.
+    private Node findFree(int length) {
+        if (freeIndex != null) {
+            return freeIndex.find(length);
+        }
+        if (policy == FitPolicy.NEXT_FIT) {
+            return findNextFit(length);
+        }
+        Node current = freeList.getFirst();
+        int longest = -1;
+        while(current != null) {
+            nodesScanned ++;
+            if (current.block.length >= length) {
+                break;
+            }
+            longest = Math.max(longest, current.block.length);
+            current = current.next;
+        }
+        if (current == null) {
+            maxFreeLength = longest;
+        }
+        return current;
+    }
+
+    // Merges adjacent free blocks until one of them is at least as long as the given
+    // length, and returns its node, or null if no merge produces such a block.
+    private Node defragFor(int length) {
+        long start = System.nanoTime();
+        Node merged = mergeRuns(length);
+        autoDefragNanos += System.nanoTime() - start;
+        autoDefragCount ++;
+        if (merged != null) {
+            autoDefragSuccesses ++;
+        }
+        return merged;
+    }
+
+    // Scans the freeList from the rover, wrapping around at the end of the list, and
+    // returns the first node whose block is long enough, or null if there is no such
+    // node. The rover is left at the returned node.
+    private Node findNextFit(int length) {
+        Node start = (rover != null) ? rover : freeList.getFirst();
+        Node current = start;
+        int longest = -1;
+        while (current != null) {
+            nodesScanned ++;
+            if (current.block.length >= length) {
+                rover = current;
+                return current;
+            }
+            longest = Math.max(longest, current.block.length);
+            current = (current.next != null) ? current.next : freeList.getFirst();
+            if (current == start) {
+                break;
+            }
+        }
+        maxFreeLength = longest;
+        return null;
+    }
+
+    // Inserts the given block into the freeList just before the given node, or at the
+    // end of the list if the node is null, and adds the new node to the free indexes.
+    private void insertFree(Node right, MemoryBlock block) {
+        freeList.addBefore(right, block);
+        freeWords += block.length;
+        maxFreeLength = Math.max(maxFreeLength, block.length);
+        Node node = (right == null) ? freeList.getLast() : right.prev;
+        if (freeIndex != null) {
+            freeIndex.add(node);
+        }
+        if (freeStarts != null && block.length > 0) {
+            freeStarts.putIfAbsent(block.baseAddress, node);
+        }
+        if (freeEnds != null && block.length > 0) {
+            freeEnds.putIfAbsent(block.baseAddress + block.length, node);
+        }
+        if (freeOrder != null) {
+            freeOrder.add(node);
+        }
+    }
+
+    // Removes the given node from the freeList and from the free indexes.
+    // If the rover or the defragCursor points at the node, it moves on to the next node.
+    private void removeFree(Node node) {
+        if (freeIndex != null) {
+            freeIndex.remove(node);
+        }
+        if (freeStarts != null && freeStarts.get(node.block.baseAddress) == node) {
+            freeStarts.remove(node.block.baseAddress);
+        }
+        removeEnd(node);
+        if (freeOrder != null) {
+            freeOrder.remove(node);
+        }
+        if (node == rover) {
+            rover = node.next;
+        }
+        if (node == defragCursor) {
+            defragCursor = node.next;
+        }
+        if (node == indexCursor) {
+            indexCursor = node.next;
+        }
+        freeList.remove(node);
+        freeWords -= node.block.length;
+    }
+
+    // Changes the base address and the length of the block of the given free-list node,
+    // and keeps the free indexes consistent with the change. A resized block never
+    // moves past a free neighbor, so its place in freeOrder stays valid.
+    private void resizeFree(Node node, int baseAddress, int length) {
+        if (freeIndex != null) {
+            freeIndex.remove(node);
+        }
+        if (freeStarts != null && freeStarts.get(node.block.baseAddress) == node) {
+            freeStarts.remove(node.block.baseAddress);
+        }
+        removeEnd(node);
+        freeWords += length - node.block.length;
+        maxFreeLength = Math.max(maxFreeLength, length);
+        node.block.baseAddress = baseAddress;
+        node.block.length = length;
+        if (freeIndex != null) {
+            freeIndex.add(node);
+        }
+        if (freeStarts != null && length > 0) {
+            freeStarts.putIfAbsent(baseAddress, node);
+        }
+        if (freeEnds != null && length > 0) {
+            freeEnds.putIfAbsent(baseAddress + length, node);
+        }
+    }
+
+    // Removes the end address of the block of the given free-list node from freeEnds.
+    private void removeEnd(Node node) {
+        int endAddress = node.block.baseAddress + node.block.length;
+        if (freeEnds != null && freeEnds.get(endAddress) == node) {
+            freeEnds.remove(endAddress);
+        }
+    }
+
     /**
      * Frees the memory block whose base address equals the given address.
      * This implementation deletes the block whose base address equals the given 
      * address from the allocatedList, and adds it at the end of the free list. 
+     * The block is found through the allocatedIndex, so the operation takes O(1) time.
+     * If no allocated block starts at the given address, nothing happens.
+     * If the block is the chunk of an open region, the region is closed.
+     * In coalescing mode, the block is merged into the address-ordered freeList instead.
+     * Its free neighbors are found by their end and start addresses in O(1) time, and
+     * only a block that has no free neighbor takes O(log n) time to find its place.
      * 
      * @param baseAddress
      *            the starting address of the block to freeList
+     * @throws IllegalArgumentException
+     *         if there are no allocated blocks
      */
     public void free(int address) {
-        Node current = allocatedList.getFirst();
         if(allocatedList.getSize() == 0){
                 throw new IllegalArgumentException(
                         "index must be between 0 and size");
             }
-        else{
-            while(current.block.baseAddress != address && current != allocatedList.getLast()) {
-                current = current.next;
+        Node current = allocatedIndex.remove(address);
+        if (current != null) {
+            if (!aliases.isEmpty()) {
+                reindexAliased(address);
+            }
+            freeAllocated(current);
+        }
+    }
+
+    /**
+     * Frees the memory block of the given allocatedList node. Unlike free(address),
+     * this also frees a zero-length block that shares its base address with an
+     * older allocated block.
+     * 
+     * @param node
+     *        a node of the allocatedList
+     */
+    void free(Node node) {
+        int address = node.block.baseAddress;
+        if (allocatedIndex.get(address) == node) {
+            allocatedIndex.remove(address);
+            if (!aliases.isEmpty()) {
+                reindexAliased(address);
+            }
+        }
+        else {
+            java.util.ArrayList<Node> chain = aliases.get(address);
+            chain.remove(node);
+            if (chain.isEmpty()) {
+                aliases.remove(address);
+            }
+        }
+        freeAllocated(node);
+    }
+
+    /**
+     * Gets the rank of the given allocatedList node among the allocated blocks that
+     * have the same base address, from the oldest to the newest.
+     * 
+     * @param node
+     *        a node of the allocatedList
+     * @return 0 for the oldest block at its address, 1 for the next one, and so on
+     */
+    int getAliasRank(Node node) {
+        if (allocatedIndex.get(node.block.baseAddress) == node) {
+            return 0;
+        }
+        return aliases.get(node.block.baseAddress).indexOf(node) + 1;
+    }
+
+    /**
+     * Gets the allocatedList node of the allocated block of the given rank (see
+     * getAliasRank) among the blocks that start at the given address.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param rank
+     *        the rank of the block among the blocks at that address
+     * @return the node of the block, or null if there is no such block
+     */
+    Node getAllocated(int address, int rank) {
+        if (rank == 0) {
+            return allocatedIndex.get(address);
+        }
+        java.util.ArrayList<Node> chain = aliases.get(address);
+        return (chain != null && rank <= chain.size()) ? chain.get(rank - 1) : null;
+    }
+
+    // Removes the given node, which is no longer indexed, from the allocatedList, and
+    // returns its block to the freeList. If the block is a region's chunk, the region
+    // is closed.
+    private void freeAllocated(Node node) {
+        allocatedList.remove(node);
+        if (!regions.isEmpty()) {
+            MemoryRegion region = regions.remove(node);
+            if (region != null) {
+                region.close();
+            }
+        }
+        release(node.block);
+    }
+
+    /**
+     * Opens a region of a given capacity (in words): allocates a chunk of that
+     * length, from which the region's malloc bump-allocates blocks. The blocks of
+     * the region are freed all together by closeRegion (or by the region's reset).
+     * Freeing the chunk's base address also closes the region.
+     *
+     * @param capacity
+     *        the length (in words) of the region's chunk (at least 1)
+     * @return the new region
+     * @throws IllegalArgumentException
+     *         if the capacity is not positive, or if unable to allocate the chunk
+     */
+    public MemoryRegion openRegion(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (malloc(capacity) < 0) {
+            throw new IllegalArgumentException("not enough memory for a region of " + capacity + " words");
+        }
+        MemoryRegion region = new MemoryRegion(this, allocatedList.getLast());
+        regions.put(allocatedList.getLast(), region);
+        return region;
+    }
+
+    /**
+     * Closes the given region: frees all of its blocks at once, by returning its
+     * chunk to the freeList with a single free. The region cannot be used afterwards.
+     *
+     * @param region
+     *        a region that was opened by this memory space, and was not closed
+     * @throws IllegalArgumentException
+     *         if the region was opened by another memory space
+     * @throws IllegalStateException
+     *         if the region is already closed
+     */
+    public void closeRegion(MemoryRegion region) {
+        free(region.getChunk(this));
+    }
+
+    /**
+     * Checks whether an allocated block starts at the given address.
+     * 
+     * @param address
+     *        the address to check
+     * @return true if some allocated block has the given base address
+     */
+    boolean isAllocated(int address) {
+        return allocatedIndex.get(address) != null;
+    }
+
+    /**
+     * Removes free memory for another memory space that manages the same addresses
+     * (see ShardedMemorySpace). The longest free block is split, and its upper part,
+     * of half its length or the given length, whichever is longer, is removed from
+     * the freeList and returned. The whole block is removed if it is not long enough
+     * to split. Zero-length blocks are never removed, since they give the other
+     * memory space nothing to allocate.
+     * 
+     * @param length
+     *        the minimal length of the removed block
+     * @return the removed block, which is at least one word long, or null if no
+     *         non-empty free block is at least that long
+     */
+    MemoryBlock takeFree(int length) {
+        Node longest = null;
+        for (Node node = freeList.getFirst(); node != null; node = node.next) {
+            if (longest == null || node.block.length > longest.block.length) {
+                longest = node;
+            }
+        }
+        if (longest == null || longest.block.length == 0 || longest.block.length < length) {
+            return null;
+        }
+        int taken = Math.max(Math.max(length, 1), longest.block.length / 2);
+        if (taken == longest.block.length) {
+            removeFree(longest);
+            return longest.block;
+        }
+        MemoryBlock block = longest.block;
+        resizeFree(longest, block.baseAddress, block.length - taken);
+        return new MemoryBlock(block.baseAddress + block.length, taken);
+    }
+
+    /**
+     * Removes all the free blocks of this memory space, so that they can be merged
+     * with the free blocks of other memory spaces that manage the same addresses
+     * (see ShardedMemorySpace.defrag), and returned to them by addFree.
+     * 
+     * @return the removed blocks, in freeList order
+     */
+    MemoryBlock[] takeAllFree() {
+        MemoryBlock[] blocks = new MemoryBlock[freeList.getSize()];
+        for (int i = 0; i < blocks.length; i++) {
+            Node node = freeList.getFirst();
+            removeFree(node);
+            blocks[i] = node.block;
+        }
+        maxFreeLength = -1;
+        return blocks;
+    }
+
+    /**
+     * Adds a free block that was taken from another memory space by takeFree.
+     * 
+     * @param block
+     *        the block to add
+     */
+    void addFree(MemoryBlock block) {
+        release(block);
+    }
+
+    /**
+     * Gets the allocatedList node of the block that was allocated most recently.
+     * 
+     * @return the last node of the allocatedList, or null if no block is allocated
+     */
+    Node getLastAllocated() {
+        return allocatedList.getLast();
+    }
+
+    // Returns the given block, which was just removed from the allocatedList, to the freeList.
+    private void release(MemoryBlock block) {
+        if (coalescing) {
+            releaseCoalesced(block);
+        }
+        // Indexed free lists do not keep zero-length blocks, which cover no memory
+        else if (block.length > 0 || freeIndex == null) {
+            insertFree(null, block);
+        }
+    }
+
+    // Adds the given allocatedList node to the allocatedIndex, or, if an older block
+    // has the same base address, to the aliases of that address.
+    private void indexAllocated(Node node) {
+        if (!allocatedIndex.putIfAbsent(node.block.baseAddress, node)) {
+            aliases.computeIfAbsent(node.block.baseAddress, a -> new java.util.ArrayList<Node>()).add(node);
+        }
+    }
+
+    // After the indexed block at the given address was freed, indexes the oldest
+    // remaining allocated block that has the same base address, if there is one.
+    private void reindexAliased(int address) {
+        java.util.ArrayList<Node> chain = aliases.get(address);
+        if (chain != null) {
+            allocatedIndex.putIfAbsent(address, chain.remove(0));
+            if (chain.isEmpty()) {
+                aliases.remove(address);
             }
-            if (current.block.baseAddress == address) {
-                allocatedList.remove(current.block);
-            freeList.addLast(current.block);
+        }
+    }
+
+    // Returns the given block to the address-ordered freeList, merging it with the
+    // free block that ends where it begins and with the free block that begins where
+    // it ends. Zero-length blocks cover no memory, so they are simply dropped.
+    // The block's neighbors are found through freeEnds and freeStarts. A block that
+    // has none is inserted before the first free block above it, which is found
+    // through freeOrder, or through the segment tree in ADDRESS_ORDERED_FIT mode.
+    private void releaseCoalesced(MemoryBlock block) {
+        if (block.length == 0) {
+            return;
+        }
+        Node left = freeEnds.get(block.baseAddress);
+        Node right = freeStarts.get(block.baseAddress + block.length);
+        if (left != null) {
+            int length = left.block.length + block.length;
+            if (right != null) {
+                length += right.block.length;
+                removeFree(right);
             }
+            resizeFree(left, left.block.baseAddress, length);
+        }
+        else if (right != null) {
+            resizeFree(right, block.baseAddress, right.block.length + block.length);
+        }
+        else if (freeOrder != null) {
+            orderProbe.block.baseAddress = block.baseAddress;
+            insertFree(freeOrder.higher(orderProbe), block);
         }
+        else {
+            Node below = ((SegmentTreeIndex) freeIndex).lastBefore(block.baseAddress);
+            insertFree((below == null) ? freeList.getFirst() : below.next, block);
+        }
+    }
+
+    /**
+     * Reads a word of an allocated block.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset of the word within the block
+     * @return the value of the word
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the offset is
+     *         not within the block
+     */
+    public int read(int address, int offset) {
+        checkAccess(address, offset, 1);
+        wordsRead ++;
+        return words.read(address + offset);
+    }
+
+    /**
+     * Writes a word of an allocated block.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset of the word within the block
+     * @param value
+     *        the value to write
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the offset is
+     *         not within the block
+     */
+    public void write(int address, int offset, int value) {
+        checkAccess(address, offset, 1);
+        wordsWritten ++;
+        words.write(address + offset, value);
+    }
+
+    /**
+     * Copies consecutive words from an array into an allocated block.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first word to write
+     * @param source
+     *        the array to copy from
+     * @param sourceOffset
+     *        the index in the array of the first word to copy
+     * @param count
+     *        the number of words to copy
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the words are
+     *         not all within the block
+     */
+    public void copyIn(int address, int offset, int[] source, int sourceOffset, int count) {
+        checkAccess(address, offset, count);
+        words.copyIn(address + offset, source, sourceOffset, count);
+        wordsWritten += count;
+    }
+
+    /**
+     * Copies consecutive words from an allocated block into an array.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first word to read
+     * @param target
+     *        the array to copy to
+     * @param targetOffset
+     *        the index in the array at which to store the first word
+     * @param count
+     *        the number of words to copy
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the words are
+     *         not all within the block
+     */
+    public void copyOut(int address, int offset, int[] target, int targetOffset, int count) {
+        checkAccess(address, offset, count);
+        words.copyOut(address + offset, target, targetOffset, count);
+        wordsRead += count;
+    }
+
+    /**
+     * Reads a long that occupies two words of an allocated block, the high half first.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first of the two words
+     * @return the value of the long
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the two words
+     *         are not within the block
+     */
+    public long readLong(int address, int offset) {
+        checkAccess(address, offset, 2);
+        wordsRead += 2;
+        return words.readLong(address + offset);
+    }
+
+    /**
+     * Writes a long into two words of an allocated block, the high half first.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first of the two words
+     * @param value
+     *        the value to write
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the two words
+     *         are not within the block
+     */
+    public void writeLong(int address, int offset, long value) {
+        checkAccess(address, offset, 2);
+        wordsWritten += 2;
+        words.writeLong(address + offset, value);
+    }
+
+    /**
+     * Reads a double that occupies two words of an allocated block.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first of the two words
+     * @return the value of the double
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the two words
+     *         are not within the block
+     */
+    public double readDouble(int address, int offset) {
+        return Double.longBitsToDouble(readLong(address, offset));
+    }
+
+    /**
+     * Writes a double into two words of an allocated block.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first of the two words
+     * @param value
+     *        the value to write
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the two words
+     *         are not within the block
+     */
+    public void writeDouble(int address, int offset, double value) {
+        writeLong(address, offset, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Sets consecutive words of an allocated block to the given value.
+     * 
+     * @param address
+     *        the base address of the block
+     * @param offset
+     *        the offset within the block of the first word to set
+     * @param count
+     *        the number of words to set
+     * @param value
+     *        the value to set
+     * @throws IllegalArgumentException
+     *         if no allocated block starts at the given address, or the words are
+     *         not all within the block
+     */
+    public void fill(int address, int offset, int count, int value) {
+        checkAccess(address, offset, count);
+        words.fill(address + offset, count, value);
+        wordsWritten += count;
+    }
+
+    /**
+     * Gets the number of words read from the memory so far.
+     * 
+     * @return the number of words read
+     */
+    public long getWordsRead() {
+        return wordsRead;
+    }
+
+    /**
+     * Gets the number of words written to the memory so far.
+     * 
+     * @return the number of words written
+     */
+    public long getWordsWritten() {
+        return wordsWritten;
+    }
+
+    // Checks that count words, starting at the given offset, lie within the allocated
+    // block that starts at the given address, and creates the memory contents if needed.
+    private void checkAccess(int address, int offset, int count) {
+        Node owner = allocatedIndex.get(address);
+        if (owner != null && owner.block.length == 0 && !aliases.isEmpty()) {
+            // A zero-length block is indexed; a longer block may share its address
+            java.util.ArrayList<Node> chain = aliases.get(address);
+            for (int i = 0; chain != null && i < chain.size(); i++) {
+                if (chain.get(i).block.length > 0) {
+                    owner = chain.get(i);
+                    break;
+                }
+            }
+        }
+        if (owner == null) {
+            throw new IllegalArgumentException(
+                    "no allocated block starts at address " + address);
+        }
+        if (offset < 0 || count < 0 || offset > owner.block.length - count) {
+            throw new IllegalArgumentException(
+                    "offset must be between 0 and the length of the block");
+        }
+        if (words == null) {
+            words = new HeapWordStore(maxSize);
+        }
+    }
+
+    /**
+     * Sets whether malloc defragments the memory and retries when it finds no free
+     * block that is long enough. The defragmentation is bounded: it merges adjacent
+     * free blocks, in address order, only until the merged block can satisfy the
+     * request. This mode is off by default.
+     * 
+     * @param autoDefrag
+     *        true to defragment on malloc failure, false to just return -1
+     */
+    public void setAutoDefrag(boolean autoDefrag) {
+        this.autoDefrag = autoDefrag;
+    }
+
+    /**
+     * Gets the number of times that a failing malloc defragmented the memory.
+     * 
+     * @return the number of automatic defragmentations
+     */
+    public long getAutoDefragCount() {
+        return autoDefragCount;
+    }
+
+    /**
+     * Gets the number of times that a malloc succeeded after an automatic defragmentation.
+     * 
+     * @return the number of successful automatic defragmentations
+     */
+    public long getAutoDefragSuccesses() {
+        return autoDefragSuccesses;
+    }
+
+    /**
+     * Gets the total time spent in automatic defragmentation.
+     * 
+     * @return the time spent in automatic defragmentation, in nanoseconds
+     */
+    public long getAutoDefragNanos() {
+        return autoDefragNanos;
+    }
+
+    /**
+     * Gets the number of calls to malloc so far.
+     * 
+     * @return the number of calls to malloc
+     */
+    public long getMallocCount() {
+        return mallocCount;
+    }
+
+    /**
+     * Gets the number of freeList nodes that malloc examined so far, when
+     * scanning the freeList (the FIRST_FIT and NEXT_FIT policies).
+     * 
+     * @return the number of nodes examined by malloc
+     */
+    public long getNodesScanned() {
+        return nodesScanned;
+    }
+
+    /**
+     * Gets the number of calls to malloc that were rejected without a search,
+     * because the requested length exceeded the running maximum of the free-block
+     * lengths.
+     * 
+     * @return the number of fast rejections
+     */
+    public long getFastRejectionCount() {
+        return fastRejections;
+    }
+
+    /**
+     * Gets the average number of freeList nodes that malloc examined per call.
+     * 
+     * @return the average number of nodes examined per malloc, or 0 if malloc was never called
+     */
+    public double getAverageNodesScanned() {
+        return (mallocCount == 0) ? 0 : (double) nodesScanned / mallocCount;
+    }
+
+    /**
+     * Gets the total length of the free blocks of this memory space.
+     * 
+     * @return the number of free words
+     */
+    public long getFreeWords() {
+        return freeWords;
+    }
+
+    /**
+     * Gets the size of this memory space.
+     * 
+     * @return the size of the managed memory space, in words
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Gets the placement policy of malloc.
+     * 
+     * @return the placement policy
+     */
+    public FitPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Checks whether this memory space is in coalescing mode.
+     * 
+     * @return true if free coalesces blocks, false otherwise
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * Gets the list of free blocks, for saving the state of this memory space.
+     * The list must not be changed.
+     * 
+     * @return the freeList
+     */
+    LinkedList getFreeList() {
+        return freeList;
+    }
+
+    /**
+     * Gets the list of allocated blocks, for saving the state of this memory space.
+     * The list must not be changed.
+     * 
+     * @return the allocatedList
+     */
+    LinkedList getAllocatedList() {
+        return allocatedList;
+    }
+
+    /**
+     * Gets the position in the freeList of the node at which the next NEXT_FIT
+     * search starts.
+     * 
+     * @return the index of the rover's node, or -1 if the search starts at the first node
+     */
+    int getRoverIndex() {
+        return freeListPosition(rover);
+    }
+
+    /**
+     * Gets the position in the freeList of the node at which the incremental
+     * defragmentation pass in progress resumes (see defragStep).
+     * 
+     * @return the index of the defragCursor's node, or -1 if the next defragStep
+     *         starts a new pass
+     */
+    int getDefragCursorIndex() {
+        return freeListPosition(defragCursor);
+    }
+
+    /**
+     * Gets the progress of the index of free-block addresses that defragStep builds.
+     * 
+     * @return 0 if defragStep has not started the index, 1 if the index is complete,
+     *         or the freeList position at which its building resumes plus 2
+     */
+    int getIndexProgress() {
+        if (freeStarts == null) {
+            return 0;
+        }
+        return (indexCursor == null) ? 1 : freeListPosition(indexCursor) + 2;
+    }
+
+    /**
+     * Resumes the incremental defragmentation state that getDefragCursorIndex and
+     * getIndexProgress saved, after the blocks were restored.
+     * 
+     * @param defragCursorIndex
+     *        the saved getDefragCursorIndex
+     * @param indexProgress
+     *        the saved getIndexProgress
+     */
+    void restoreDefragState(int defragCursorIndex, int indexProgress) {
+        if (indexProgress > 0 && freeStarts == null) {
+            // Indexing the blocks ahead of the cursor early does not change which
+            // units of work defragStep performs
+            freeStarts = new AddressIndex();
+            for (Node node = freeList.getFirst(); node != null; node = node.next) {
+                if (node.block.length > 0) {
+                    freeStarts.putIfAbsent(node.block.baseAddress, node);
+                }
+            }
+        }
+        indexCursor = (indexProgress > 1) ? freeList.getNode(indexProgress - 2) : null;
+        defragCursor = (defragCursorIndex >= 0) ? freeList.getNode(defragCursorIndex) : null;
+    }
+
+    // Returns the position of the given node in the freeList, or -1 if the node is null.
+    private int freeListPosition(Node target) {
+        if (target == null) {
+            return -1;
+        }
+        int index = 0;
+        for (Node node = freeList.getFirst(); node != target; node = node.next) {
+            index ++;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the order in which the freeIndex considers the free blocks, if the
+     * policy's choice among equally suitable blocks depends on that order, as it
+     * does in SEGREGATED_FIT mode, where each size class keeps its blocks in the
+     * order in which they entered the class.
+     * 
+     * @return the freeList positions of the free blocks in index order, or null
+     */
+    int[] getIndexOrder() {
+        if (!(freeIndex instanceof SizeClassIndex)) {
+            return null;
+        }
+        java.util.IdentityHashMap<Node, Integer> positions = new java.util.IdentityHashMap<Node, Integer>();
+        int position = 0;
+        for (Node node = freeList.getFirst(); node != null; node = node.next) {
+            positions.put(node, position ++);
+        }
+        java.util.List<Node> nodes = ((SizeClassIndex) freeIndex).nodesInOrder();
+        int[] order = new int[nodes.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = positions.get(nodes.get(i));
+        }
+        return order;
+    }
+
+    /**
+     * Replaces the blocks of this memory space by the given ones, which were saved
+     * from a memory space of the same size, policy and mode. Each array holds
+     * baseAddress, length pairs, in list order. The contents of the memory are
+     * not changed. The regions that are open are closed.
+     * 
+     * @param freeBlocks
+     *        the free blocks
+     * @param freeCount
+     *        the number of free blocks
+     * @param allocatedBlocks
+     *        the allocated blocks
+     * @param allocatedCount
+     *        the number of allocated blocks
+     * @param roverIndex
+     *        the position of the rover's node in the freeList, or -1
+     * @param indexOrder
+     *        the saved getIndexOrder, or null to index the free blocks in list order
+     */
+    void restore(int[] freeBlocks, int freeCount, int[] allocatedBlocks, int allocatedCount, int roverIndex,
+            int[] indexOrder) {
+        freeList = new LinkedList();
+        freeWords = 0;
+        maxFreeLength = -1;
+        freeIndex = null;
+        freeStarts = null;
+        freeEnds = null;
+        freeOrder = null;
+        if (coalescing) {
+            createNeighborIndexes();
+        }
+        indexCursor = null;
+        defragCursor = null;
+        rover = null;
+        for (int i = 0; i < freeCount; i++) {
+            insertFree(null, new MemoryBlock(freeBlocks[2 * i], freeBlocks[2 * i + 1]));
+        }
+        freeIndex = newFreeIndex(policy, maxSize);
+        if (freeIndex != null) {
+            Node[] nodes = new Node[freeCount];
+            int count = 0;
+            for (Node node = freeList.getFirst(); node != null; node = node.next) {
+                nodes[count ++] = node;
+            }
+            for (int i = 0; i < freeCount; i++) {
+                freeIndex.add(nodes[(indexOrder == null) ? i : indexOrder[i]]);
+            }
+        }
+        for (MemoryRegion region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+        allocatedList = new LinkedList();
+        allocatedIndex = new AddressIndex();
+        aliases.clear();
+        for (int i = 0; i < allocatedCount; i++) {
+            allocatedList.addLast(new MemoryBlock(allocatedBlocks[2 * i], allocatedBlocks[2 * i + 1]));
+            indexAllocated(allocatedList.getLast());
+        }
+        if (roverIndex >= 0) {
+            rover = freeList.getNode(roverIndex);
+        }
+    }
+
+    /**
+     * Writes a compact binary snapshot of the blocks of this memory space to the
+     * given stream, in the format described in MemorySnapshot. The contents of the
+     * memory are not written. The stream is not flushed or closed.
+     * 
+     * @param out
+     *        the stream to write to
+     * @throws IOException
+     *         if the stream cannot be written
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        MemorySnapshot.write(this, out);
+    }
+
+    /**
+     * Writes a compact binary snapshot of the blocks of this memory space to the
+     * given channel (for example, a FileChannel), at its current position.
+     * 
+     * @param channel
+     *        the channel to write to
+     * @throws IOException
+     *         if the channel cannot be written
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        MemorySnapshot.write(this, Channels.newOutputStream(channel));
     }
 
     /**
@@ -119,24 +1301,230 @@ public class MemorySpace {
     /**
      * Performs defragmantation of this memory space.
      * Normally, called by malloc, when it fails to find a memory block of the requested size.
-     * In this implementation Malloc does not call defrag.
+     * By default Malloc does not call defrag; see setAutoDefrag.
+     * 
+     * The free blocks are ordered by base address once, and every run of adjacent
+     * blocks is then merged, in a single pass, into the run's lowest block, which keeps
+     * its place in the freeList. Zero-length free blocks are removed. The work is
+     * O(n log n) for a freeList of n blocks, and O(n) in coalescing mode, where the
+     * freeList is already ordered by address.
      */
     public void defrag() {
-        for (int i = 0; i < freeList.getSize(); i++) {
-            MemoryBlock currentBlock = freeList.getBlock(i);
-            int endAddress = currentBlock.baseAddress + currentBlock.length;
-
-            Node iterator = freeList.getFirst(); 
-            while (iterator != null) {
-                MemoryBlock nextBlock = iterator.block;
-                if (nextBlock.baseAddress == endAddress) {
-                    currentBlock.length += nextBlock.length;
-                    freeList.remove(iterator); 
-                    defrag();
-                    break;
+        mergeRuns(0);
+    }
+
+    // Merges the runs of adjacent free blocks, in address order, as described in defrag.
+    // If the given length is positive, stops as soon as a merged block is at least that
+    // long, and returns its node. Otherwise, merges all the runs and returns null.
+    // A bounded merge does not sort the free blocks: it builds a heap of them in O(n)
+    // time, and takes them out in address order, so it orders only the blocks that it
+    // reaches before it stops.
+    private Node mergeRuns(int length) {
+        Node[] ordered = new Node[freeList.getSize()];
+        int count = 0;
+        Node current = freeList.getFirst();
+        while (current != null) {
+            Node next = current.next;
+            if (current.block.length == 0) {
+                removeFree(current);
+            }
+            else {
+                ordered[count ++] = current;
+            }
+            current = next;
+        }
+        long[] keys = null;
+        if (!coalescing && length > 0) {
+            keys = addressKeys(ordered, count);
+            for (int i = count / 2 - 1; i >= 0; i--) {
+                siftDown(keys, i, count);
+            }
+        }
+        else if (!coalescing) {
+            sortByAddress(ordered, count);
+        }
+        Node run = null;
+        for (int i = 0; i < count; i++) {
+            Node node;
+            if (keys != null) {
+                // Moves the lowest remaining key to the end of the shrinking heap
+                int last = count - 1 - i;
+                long lowest = keys[0];
+                keys[0] = keys[last];
+                siftDown(keys, 0, last);
+                node = ordered[(int) lowest];
+            }
+            else {
+                node = ordered[i];
+            }
+            if (run != null && run.block.baseAddress + run.block.length == node.block.baseAddress) {
+                removeFree(node);
+                resizeFree(run, run.block.baseAddress, run.block.length + node.block.length);
+                if (length > 0 && run.block.length >= length) {
+                    return run;
                 }
-                iterator = iterator.next;
             }
+            else {
+                run = node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Performs a bounded amount of incremental defragmentation, and returns.
+     * Successive calls advance a cursor through the freeList: the free block at the
+     * cursor absorbs the free block that begins where it ends, if there is one, and
+     * otherwise the cursor moves on to the next node. Each merge, and each move of
+     * the cursor, is one unit of work. When the cursor passes the end of the freeList
+     * a pass is complete, and the next call starts a new pass. malloc and free may be
+     * called freely between the calls.
+     * <p>
+     * A complete pass leaves the same free blocks as defrag. Before the first merge,
+     * the first calls build an index of the free blocks by base address, indexing one
+     * block per unit of work, so that no call does more than maxWork units. The index
+     * is maintained from then on, so that each unit of work takes O(1) time.
+     * 
+     * @param maxWork
+     *        the maximal number of units of work to perform
+     * @return true if this call completed a pass, false otherwise
+     */
+    public boolean defragStep(int maxWork) {
+        int work = 0;
+        if (freeStarts == null) {
+            freeStarts = new AddressIndex();
+            indexCursor = freeList.getFirst();
+        }
+        // Blocks that enter the freeList meanwhile are indexed by insertFree
+        for (; work < maxWork && indexCursor != null; work++) {
+            if (indexCursor.block.length > 0) {
+                freeStarts.putIfAbsent(indexCursor.block.baseAddress, indexCursor);
+            }
+            indexCursor = indexCursor.next;
+        }
+        if (indexCursor != null) {
+            return false;
+        }
+        if (defragCursor == null) {
+            defragCursor = freeList.getFirst();
+        }
+        for (; work < maxWork && defragCursor != null; work++) {
+            Node current = defragCursor;
+            if (current.block.length == 0) {
+                removeFree(current);
+                continue;
+            }
+            Node right = freeStarts.get(current.block.baseAddress + current.block.length);
+            if (right != null) {
+                removeFree(right);
+                resizeFree(current, current.block.baseAddress, current.block.length + right.block.length);
+            }
+            else {
+                defragCursor = current.next;
+            }
+        }
+        return defragCursor == null;
+    }
+
+    /**
+     * Compacts this memory space: slides all the allocated blocks down, in address
+     * order, so that they occupy the beginning of the memory with no holes between
+     * them, and replaces the free blocks by a single block that covers the rest of
+     * the memory. The allocated blocks are moved in one linear pass, after sorting
+     * them by address once. The blocks keep their places in the allocatedList.
+     * <p>
+     * The contents of the moved blocks move with them.
+     * Compaction changes the base addresses of allocated blocks, so the addresses
+     * that malloc returned before it are no longer valid. CompactingMemorySpace
+     * gives out handles that stay valid across compactions.
+     */
+    public void compact() {
+        Node[] ordered = new Node[allocatedList.getSize()];
+        int count = 0;
+        for (Node node = allocatedList.getFirst(); node != null; node = node.next) {
+            ordered[count ++] = node;
+        }
+        sortByAddress(ordered, count);
+        int baseAddress = 0;
+        allocatedIndex.clear();
+        aliases.clear();
+        for (int i = 0; i < count; i++) {
+            MemoryBlock block = ordered[i].block;
+            if (words != null && block.baseAddress != baseAddress) {
+                words.move(block.baseAddress, baseAddress, block.length);
+            }
+            block.baseAddress = baseAddress;
+            baseAddress += block.length;
+        }
+        // Indexes the blocks in allocatedList order, so that the oldest block at
+        // each address is the indexed one
+        for (Node node = allocatedList.getFirst(); node != null; node = node.next) {
+            indexAllocated(node);
+        }
+        while (freeList.getSize() > 0) {
+            removeFree(freeList.getFirst());
+        }
+        if (baseAddress < maxSize) {
+            insertFree(null, new MemoryBlock(baseAddress, maxSize - baseAddress));
+        }
+    }
+
+    /**
+     * Performs incremental defragmentation (see defragStep) until the given time
+     * budget is spent or the current pass is complete.
+     * 
+     * @param budgetNanos
+     *        the time budget, in nanoseconds
+     * @return true if this call completed a pass, false otherwise
+     */
+    public boolean defragWithin(long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        boolean complete = defragStep(DEFRAG_BATCH);
+        while (!complete && System.nanoTime() < deadline) {
+            complete = defragStep(DEFRAG_BATCH);
+        }
+        return complete;
+    }
+
+    // Sorts the first count nodes of the given array by the base addresses of their blocks.
+    // Each sort key packs a base address with the node's position in the array, so that
+    // the sort runs on primitive longs.
+    private static void sortByAddress(Node[] nodes, int count) {
+        long[] keys = addressKeys(nodes, count);
+        java.util.Arrays.sort(keys);
+        Node[] sorted = new Node[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = nodes[(int) keys[i]];
+        }
+        System.arraycopy(sorted, 0, nodes, 0, count);
+    }
+
+    // Returns the sort keys of the first count nodes of the given array: each key packs
+    // the base address of a node's block with the node's position in the array.
+    private static long[] addressKeys(Node[] nodes, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) nodes[i].block.baseAddress << 32) | i;
+        }
+        return keys;
+    }
+
+    // Moves the key at the given index down the min-heap formed by the first size keys,
+    // until neither of its children is smaller.
+    private static void siftDown(long[] keys, int index, int size) {
+        long key = keys[index];
+        int child = 2 * index + 1;
+        while (child < size) {
+            if (child + 1 < size && keys[child + 1] < keys[child]) {
+                child ++;
+            }
+            if (keys[child] >= key) {
+                break;
+            }
+            keys[index] = keys[child];
+            index = child;
+            child = 2 * index + 1;
         }
+        keys[index] = key;
     }
-    }
\ No newline at end of file
+}
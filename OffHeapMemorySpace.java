@@ -0,0 +1,35 @@
+/**
+ * Represents a managed memory space whose contents are kept outside the Java heap.
+ * The allocator metadata (the free list and the allocated list) is the same as in
+ * MemorySpace; only the words themselves live in a DirectWordStore, so a large
+ * memory space adds no work to the garbage collector.
+ */
+public class OffHeapMemorySpace extends MemorySpace {
+
+	/**
+	 * Constructs a new off-heap memory space of a given maximal size.
+	 * The whole memory is reserved right away.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public OffHeapMemorySpace(int maxSize) {
+		this(maxSize, FitPolicy.FIRST_FIT, false);
+	}
+
+	/**
+	 * Constructs a new off-heap memory space of a given maximal size, whose malloc
+	 * uses the given placement policy, optionally in coalescing mode.
+	 * The whole memory is reserved right away.
+	 * 
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param policy
+	 *            the placement policy of malloc
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 */
+	public OffHeapMemorySpace(int maxSize, FitPolicy policy, boolean coalescing) {
+		super(maxSize, policy, coalescing, new DirectWordStore(maxSize));
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * A FreeBlockIndex that keeps a segment tree over the address space.
+ * Each leaf of the tree is an address, and holds the length of the free block
+ * that starts there, or -1 if no free block does; each inner node holds the
+ * maximum of its children, that is, the length of the longest free block that
+ * starts in its range of addresses. find descends from the root to the leftmost
+ * leaf whose value is at least the requested length, so it returns the free block
+ * with the lowest address among those that are long enough, in O(log maxSize)
+ * time, however many free blocks there are. Adding or removing a block updates
+ * the path from its leaf to the root, also in O(log maxSize) time.
+ * <p>
+ * In coalescing mode, where the freeList is sorted by address, the lowest block
+ * that is long enough is exactly the one that a FIRST_FIT scan finds.
+ * The tree takes two ints for each address (rounded up to a power of two).
+ */
+public class SegmentTreeIndex implements FreeBlockIndex {
+
+	// The largest supported memory size
+	private static final int MAX_SIZE = (1 << 28) - 1;
+
+	// The number of leaves: the smallest power of two that is at least maxSize, so
+	// that every address below maxSize has a leaf
+	private final int leaves;
+
+	// The nodes of the tree: the root is at index 1, the children of node i are at
+	// 2i and 2i + 1, and the leaf of address a is at leaves + a
+	private final int[] tree;
+
+	// Maps the base address of each indexed block to its free-list node
+	private final AddressIndex nodes;
+
+	/**
+	 * Constructs a new, empty index for a memory space of the given size.
+	 *
+	 * @param maxSize
+	 *        the size of the memory space
+	 * @throws IllegalArgumentException
+	 *         if maxSize is greater than MAX_SIZE
+	 */
+	public SegmentTreeIndex(int maxSize) {
+		if (maxSize > MAX_SIZE) {
+			throw new IllegalArgumentException("memory size must be at most " + MAX_SIZE);
+		}
+		leaves = (maxSize <= 1) ? 1 : Integer.highestOneBit(maxSize - 1) << 1;
+		tree = new int[2 * leaves];
+		java.util.Arrays.fill(tree, -1);
+		nodes = new AddressIndex();
+	}
+
+	public void add(Node node) {
+		// Only a zero-length block can share its base address with another block
+		if (nodes.putIfAbsent(node.block.baseAddress, node)) {
+			set(node.block.baseAddress, node.block.length);
+		}
+	}
+
+	public void remove(Node node) {
+		if (nodes.get(node.block.baseAddress) == node) {
+			nodes.remove(node.block.baseAddress);
+			set(node.block.baseAddress, -1);
+		}
+	}
+
+	public Node find(int length) {
+		length = Math.max(length, 0);
+		if (tree[1] < length) {
+			return null;
+		}
+		int i = 1;
+		while (i < leaves) {
+			i = 2 * i;
+			if (tree[i] < length) {
+				i ++;
+			}
+		}
+		return nodes.get(i - leaves);
+	}
+
+	/**
+	 * Finds the indexed node whose block has the highest base address that is lower
+	 * than the given address. Takes O(log maxSize) time.
+	 *
+	 * @param address
+	 *        an address, between 0 and maxSize - 1
+	 * @return the node of the nearest block below the address, or null if there is none
+	 */
+	public Node lastBefore(int address) {
+		// Climbs until a left sibling holds a block, then descends to its rightmost block
+		for (int i = leaves + address; i > 1; i >>>= 1) {
+			if ((i & 1) == 1 && tree[i - 1] >= 0) {
+				int j = i - 1;
+				while (j < leaves) {
+					j = (tree[2 * j + 1] >= 0) ? 2 * j + 1 : 2 * j;
+				}
+				return nodes.get(j - leaves);
+			}
+		}
+		return null;
+	}
+
+	// Sets the value of the leaf of the given address, and updates its ancestors.
+	private void set(int address, int value) {
+		int i = leaves + address;
+		tree[i] = value;
+		for (i >>>= 1; i >= 1; i >>>= 1) {
+			int max = Math.max(tree[2 * i], tree[2 * i + 1]);
+			if (tree[i] == max) {
+				// The ancestors depend on this node only through its value
+				break;
+			}
+			tree[i] = max;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Represents a managed memory space that is split into shards, one per processor
+ * by default, which steal free memory from each other.
+ * <p>
+ * Each shard is a MemorySpace with its own lock, and each thread allocates from its
+ * own shard, chosen by the thread's hash (Java does not tell a thread which core it
+ * runs on). Initially each shard's freeList holds an equal range of the address
+ * space. When a shard cannot satisfy a request, it steals from the richest other
+ * shard, the one with the most free words: the longest free block of that shard is
+ * split, and a part of it that is at least as long as the request moves to the
+ * poor shard's freeList. Only the victim's lock is held while the block is taken,
+ * and only the thief's lock while it is added, so malloc never holds two locks.
+ * Unlike ConcurrentMemorySpace, whose arenas keep fixed ranges, free memory is not
+ * stranded in the shard it started in, and a request fails only when no shard has a
+ * free block that is long enough.
+ * <p>
+ * A stolen block stays in the thief's freeList after it is freed, so free memory
+ * that is adjacent in the address space may be split between shards. defrag locks
+ * all the shards, in index order, merges adjacent free blocks across the shards,
+ * and gives each merged block to the shard whose initial range holds its base address.
+ * <p>
+ * Since blocks move between shards, free finds the shard that allocated a block
+ * through a concurrent map from base addresses to shards. Only zero-length blocks
+ * can share their address with other blocks, and when blocks of two shards do, the
+ * map keeps the later one; free then searches the shards for the other one, and
+ * frees whichever block it finds first.
+ */
+public class ShardedMemorySpace implements Allocator {
+
+	// The shards, and their locks
+	private final MemorySpace[] shards;
+	private final ReentrantLock[] locks;
+
+	// The first address of the initial range of each shard (ascending)
+	private final int[] starts;
+
+	// The number of free words of each shard, published after each change, so that a
+	// thief can pick its victim without taking locks
+	private final AtomicLongArray freeWords;
+
+	// Maps the base address of each allocated block to the index of its shard
+	private final ConcurrentHashMap<Integer, Integer> owners = new ConcurrentHashMap<Integer, Integer>();
+
+	// The number of blocks that were stolen
+	private final AtomicLong stealCount = new AtomicLong();
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, with one shard
+	 * per available processor, each in FIRST_FIT mode.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public ShardedMemorySpace(int maxSize) {
+		this(maxSize, Runtime.getRuntime().availableProcessors(), FitPolicy.FIRST_FIT, false);
+	}
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size, with the given
+	 * number of shards, each with the given placement policy and mode.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 * @param shardCount
+	 *            the number of shards (at least 1)
+	 * @param policy
+	 *            the placement policy of malloc in each shard
+	 * @param coalescing
+	 *            true for coalescing mode, false for the default behavior
+	 * @throws IllegalArgumentException
+	 *         if shardCount is not positive
+	 */
+	public ShardedMemorySpace(int maxSize, int shardCount, FitPolicy policy, boolean coalescing) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("shardCount must be positive");
+		}
+		shards = new MemorySpace[shardCount];
+		locks = new ReentrantLock[shardCount];
+		freeWords = new AtomicLongArray(shardCount);
+		starts = new int[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			int start = (int) ((long) maxSize * i / shardCount);
+			int end = (int) ((long) maxSize * (i + 1) / shardCount);
+			shards[i] = new MemorySpace(maxSize, policy, coalescing);
+			shards[i].restore(new int[] { start, end - start }, (end > start) ? 1 : 0, new int[0], 0, -1, null);
+			locks[i] = new ReentrantLock();
+			starts[i] = start;
+			freeWords.set(i, end - start);
+		}
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words) from the calling
+	 * thread's shard, stealing free memory from the richest other shards if the
+	 * shard cannot satisfy the request. Returns the base address of the allocated
+	 * block, or -1 if unable to allocate.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		int shard = (Thread.currentThread().hashCode() & Integer.MAX_VALUE) % shards.length;
+		int address = mallocIn(shard, length, null);
+		if (address >= 0 || length < 0) {
+			return address;
+		}
+		// Tries each other shard at most once, the richest first
+		boolean[] tried = new boolean[shards.length];
+		tried[shard] = true;
+		for (int i = 1; i < shards.length; i++) {
+			int victim = richest(tried, length);
+			if (victim < 0) {
+				return -1;
+			}
+			tried[victim] = true;
+			MemoryBlock stolen;
+			locks[victim].lock();
+			try {
+				stolen = shards[victim].takeFree(length);
+				freeWords.set(victim, shards[victim].getFreeWords());
+			} finally {
+				locks[victim].unlock();
+			}
+			if (stolen != null) {
+				stealCount.incrementAndGet();
+				address = mallocIn(shard, length, stolen);
+				if (address >= 0) {
+					return address;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, in the
+	 * shard that allocated it. If no allocated block starts at the given address,
+	 * nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	public void free(int address) {
+		Integer shard = owners.get(address);
+		if (shard != null) {
+			locks[shard].lock();
+			try {
+				if (freeLocked(shard, address)) {
+					return;
+				}
+			} finally {
+				locks[shard].unlock();
+			}
+		}
+		// The block was freed meanwhile, or a block of another shard that starts at
+		// the same address replaced it in owners, so every shard is searched
+		boolean empty = true;
+		for (int i = 0; i < shards.length; i++) {
+			locks[i].lock();
+			try {
+				if (freeLocked(i, address)) {
+					return;
+				}
+				empty &= shards[i].getAllocatedList().getSize() == 0;
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		if (empty) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+	}
+
+	/**
+	 * Performs defragmentation of this memory space, holding the locks of all the
+	 * shards. The free blocks of all the shards are sorted by address, every run of
+	 * adjacent blocks is merged into one block, wherever its parts were, and each
+	 * merged block goes to the shard whose initial range holds its base address.
+	 * Zero-length free blocks are removed.
+	 */
+	public void defrag() {
+		// The locks are taken in index order, so two calls cannot deadlock
+		for (int i = 0; i < shards.length; i++) {
+			locks[i].lock();
+		}
+		try {
+			ArrayList<MemoryBlock> blocks = new ArrayList<MemoryBlock>();
+			for (int i = 0; i < shards.length; i++) {
+				for (MemoryBlock block : shards[i].takeAllFree()) {
+					if (block.length > 0) {
+						blocks.add(block);
+					}
+				}
+			}
+			blocks.sort((a, b) -> Integer.compare(a.baseAddress, b.baseAddress));
+			MemoryBlock run = null;
+			for (MemoryBlock block : blocks) {
+				if (run != null && run.baseAddress + run.length == block.baseAddress) {
+					run.length += block.length;
+					continue;
+				}
+				if (run != null) {
+					shards[homeOf(run.baseAddress)].addFree(run);
+				}
+				run = block;
+			}
+			if (run != null) {
+				shards[homeOf(run.baseAddress)].addFree(run);
+			}
+			for (int i = 0; i < shards.length; i++) {
+				freeWords.set(i, shards[i].getFreeWords());
+			}
+		} finally {
+			for (int i = shards.length - 1; i >= 0; i--) {
+				locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of shards of this memory space.
+	 *
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Gets the number of free blocks that shards stole from each other.
+	 *
+	 * @return the number of steals
+	 */
+	public long getStealCount() {
+		return stealCount.get();
+	}
+
+	/**
+	 * A textual representation of the free lists and the allocated lists of this
+	 * memory space (the free blocks of all the shards, then their allocated blocks),
+	 * for debugging purposes. Each shard is locked while its blocks are read.
+	 */
+	public String toString() {
+		StringBuilder free = new StringBuilder();
+		StringBuilder allocated = new StringBuilder();
+		for (int i = 0; i < shards.length; i++) {
+			locks[i].lock();
+			try {
+				free.append(shards[i].getFreeList());
+				allocated.append(shards[i].getAllocatedList());
+			} finally {
+				locks[i].unlock();
+			}
+		}
+		return free + "\n" + allocated;
+	}
+
+	// Allocates a block in the given shard, after adding the given stolen block (if
+	// not null) to the shard's freeList, and records the block's owner.
+	private int mallocIn(int shard, int length, MemoryBlock stolen) {
+		locks[shard].lock();
+		try {
+			if (stolen != null) {
+				shards[shard].addFree(stolen);
+			}
+			int address = shards[shard].malloc(length);
+			if (address >= 0) {
+				owners.put(address, shard);
+			}
+			freeWords.set(shard, shards[shard].getFreeWords());
+			return address;
+		} finally {
+			locks[shard].unlock();
+		}
+	}
+
+	// Returns the index of the shard whose initial range holds the given address: the
+	// last shard that starts at or below it (earlier shards that start at the same
+	// address have empty ranges).
+	private int homeOf(int address) {
+		int shard = 0;
+		for (int i = 1; i < starts.length && starts[i] <= address; i++) {
+			shard = i;
+		}
+		return shard;
+	}
+
+	// Frees the block that starts at the given address in the given shard, whose lock
+	// is held, and returns true, or returns false if the shard has no such block.
+	// A zero-length block may share its address with another block of the shard, so
+	// the address leaves owners only with the last of them.
+	private boolean freeLocked(int shard, int address) {
+		if (!shards[shard].isAllocated(address)) {
+			return false;
+		}
+		shards[shard].free(address);
+		freeWords.set(shard, shards[shard].getFreeWords());
+		if (!shards[shard].isAllocated(address)) {
+			owners.remove(address, shard);
+		}
+		return true;
+	}
+
+	// Returns the untried shard with the most free words, if it has at least the
+	// given number of them, or -1.
+	private int richest(boolean[] tried, int length) {
+		int richest = -1;
+		long most = Math.max(length, 1) - 1;
+		for (int i = 0; i < shards.length; i++) {
+			long words = freeWords.get(i);
+			if (!tried[i] && words > most) {
+				richest = i;
+				most = words;
+			}
+		}
+		return richest;
+	}
+}
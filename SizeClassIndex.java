@@ -0,0 +1,113 @@
+import java.util.LinkedHashSet;
+
+/**
+ * A FreeBlockIndex that segregates free blocks by size class.
+ * Every length below EXACT_CLASSES words has a class of its own, and longer blocks
+ * are binned by powers of two. A bitmap records which classes are non-empty, so
+ * finding the smallest suitable class takes a few word operations. A request for
+ * a small length is served in O(1); a request for a long length scans only the
+ * blocks of its own bin before falling back to the next non-empty bin, whose
+ * blocks are all long enough.
+ */
+public class SizeClassIndex implements FreeBlockIndex {
+
+	// Lengths below this value have exact classes; longer ones are binned
+	private static final int EXACT_CLASSES = 128;
+
+	// Exact classes, plus one bin per power of two from EXACT_CLASSES up to 2^30
+	private static final int CLASS_COUNT = EXACT_CLASSES + 31 - Integer.numberOfTrailingZeros(EXACT_CLASSES);
+
+	// The free-list nodes of each size class (created on first use)
+	private final LinkedHashSet<Node>[] classes;
+
+	// Bit c is set if and only if class c is non-empty
+	private final long[] nonEmpty;
+
+	/**
+	 * Constructs a new, empty index.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public SizeClassIndex() {
+		classes = new LinkedHashSet[CLASS_COUNT];
+		nonEmpty = new long[(CLASS_COUNT + 63) >>> 6];
+	}
+
+	public void add(Node node) {
+		int c = classOf(node.block.length);
+		if (classes[c] == null) {
+			classes[c] = new LinkedHashSet<Node>();
+		}
+		classes[c].add(node);
+		nonEmpty[c >>> 6] |= 1L << c;
+	}
+
+	public void remove(Node node) {
+		int c = classOf(node.block.length);
+		if (classes[c] != null && classes[c].remove(node) && classes[c].isEmpty()) {
+			nonEmpty[c >>> 6] &= ~(1L << c);
+		}
+	}
+
+	public Node find(int length) {
+		int c = classOf(Math.max(length, 0));
+		if (c >= EXACT_CLASSES && classes[c] != null) {
+			// A bin holds blocks of different lengths, so only some of them may fit
+			for (Node node : classes[c]) {
+				if (node.block.length >= length) {
+					return node;
+				}
+			}
+		}
+		else if (c < EXACT_CLASSES && isNonEmpty(c)) {
+			return classes[c].iterator().next();
+		}
+		int next = nextNonEmpty(c + 1);
+		return (next < 0) ? null : classes[next].iterator().next();
+	}
+
+	/**
+	 * Gets the indexed nodes, class by class. The nodes of each class are in the
+	 * order in which find considers them, so adding them to an empty index in this
+	 * order rebuilds an index that makes the same choices.
+	 * 
+	 * @return the indexed nodes
+	 */
+	java.util.List<Node> nodesInOrder() {
+		java.util.List<Node> nodes = new java.util.ArrayList<Node>();
+		for (LinkedHashSet<Node> nodesOfClass : classes) {
+			if (nodesOfClass != null) {
+				nodes.addAll(nodesOfClass);
+			}
+		}
+		return nodes;
+	}
+
+	// Returns the size class of the given length.
+	private static int classOf(int length) {
+		if (length < EXACT_CLASSES) {
+			return length;
+		}
+		return EXACT_CLASSES + Integer.numberOfLeadingZeros(EXACT_CLASSES) - Integer.numberOfLeadingZeros(length);
+	}
+
+	private boolean isNonEmpty(int c) {
+		return (nonEmpty[c >>> 6] & (1L << c)) != 0;
+	}
+
+	// Returns the first non-empty class that is not smaller than the given one, or -1.
+	private int nextNonEmpty(int from) {
+		if (from >= CLASS_COUNT) {
+			return -1;
+		}
+		int word = from >>> 6;
+		long bits = nonEmpty[word] & (-1L << from);
+		while (bits == 0) {
+			word ++;
+			if (word == nonEmpty.length) {
+				return -1;
+			}
+			bits = nonEmpty[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+}
@@ -0,0 +1,41 @@
+import java.util.TreeSet;
+
+/**
+ * A FreeBlockIndex that keeps free blocks in a balanced search tree, ordered by
+ * length and then by base address. The smallest block that is long enough is
+ * found in O(log n) time, and among blocks of that length the lowest one is chosen.
+ */
+public class SizeOrderedIndex implements FreeBlockIndex {
+
+	// The free-list nodes, ordered by (length, baseAddress)
+	private final TreeSet<Node> nodes;
+
+	// A search key, reused by find so that lookups do not allocate
+	private final Node probe;
+
+	/**
+	 * Constructs a new, empty index.
+	 */
+	public SizeOrderedIndex() {
+		nodes = new TreeSet<Node>((a, b) -> {
+			if (a.block.length != b.block.length) {
+				return Integer.compare(a.block.length, b.block.length);
+			}
+			return Integer.compare(a.block.baseAddress, b.block.baseAddress);
+		});
+		probe = new Node(new MemoryBlock(Integer.MIN_VALUE, 0));
+	}
+
+	public void add(Node node) {
+		nodes.add(node);
+	}
+
+	public void remove(Node node) {
+		nodes.remove(node);
+	}
+
+	public Node find(int length) {
+		probe.block.length = length;
+		return nodes.ceiling(probe);
+	}
+}
@@ -10,7 +10,32 @@ public class TestMemorySpace {
         testMultipleAllocations();
         testAllocationFailure();
         testFree();
+        testFreeOutOfOrder();
         testDefrag();
+        testDefragLargeFreeList();
+        testAutoDefrag();
+        testIncrementalDefrag();
+        testCompaction();
+        testWordStorage();
+        testOffHeapStorage();
+        testMappedPersistence();
+        testSnapshot();
+        testJournalRecovery();
+        testConcurrentArenas();
+        testThreadCache();
+        testBlockPool();
+        testRegion();
+        testDefragDaemon();
+        testShardStealing();
+        testCoalescingFree();
+        testSegregatedFit();
+        testBestFit();
+        testAddressOrderedFit();
+        testFastRejection();
+        testNextFit();
+        testBuddy();
+        testTlsf();
+        testBitmap();
         testComplexScenario();
 
         System.out.println("All tests completed successfully!");
@@ -65,6 +90,21 @@ public class TestMemorySpace {
         assertString(expected, memory.toString(), "Free memory state");
     }
 
+    private static void testFreeOutOfOrder() {
+        MemorySpace memory = new MemorySpace(100);
+        int addr1 = memory.malloc(10);
+        int addr2 = memory.malloc(0);
+        int addr3 = memory.malloc(10);
+        memory.malloc(10);
+        memory.free(addr3);
+        memory.free(addr1);
+        memory.free(addr2);
+        memory.free(addr1); // already freed, nothing happens
+
+        String expected = "(30 , 70) (10 , 0) (0 , 10) (10 , 10)\n(20 , 10)\n";
+        assertString(expected, memory.toString(), "Free out of order");
+    }
+
     private static void testDefrag() {
         MemorySpace memory = new MemorySpace(100);
         memory.malloc(20);
@@ -83,6 +123,655 @@ public class TestMemorySpace {
         assertString(afterDefrag, memory.toString(), "After defrag");
     }
 
+    private static void testDefragLargeFreeList() {
+        int blocks = 50000;
+        MemorySpace memory = new MemorySpace(blocks * 2);
+        int[] addresses = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            addresses[i] = memory.malloc(2);
+        }
+        for (int i = blocks - 1; i >= 0; i--) {
+            memory.free(addresses[i]);
+        }
+        memory.defrag();
+
+        String expected = "(0 , " + (blocks * 2) + ")\n";
+        assertString(expected, memory.toString(), "Defrag of a large free list");
+    }
+
+    private static void testAutoDefrag() {
+        MemorySpace memory = new MemorySpace(100);
+        memory.setAutoDefrag(true);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(20);
+        memory.malloc(20);
+        int addr4 = memory.malloc(20);
+        int addr5 = memory.malloc(20);
+        memory.free(addr5);
+        memory.free(addr1);
+        memory.free(addr4);
+        memory.free(addr2);
+
+        // Only the run at address 0 has to be merged to serve the request
+        assertEqual(0, memory.malloc(40), "Malloc after automatic defrag");
+        assertEqual(1, (int) memory.getAutoDefragCount(), "Automatic defrag count");
+        assertEqual(1, (int) memory.getAutoDefragSuccesses(), "Automatic defrag successes");
+        assertEqual(-1, memory.malloc(41), "Malloc failure after automatic defrag");
+        assertEqual(2, (int) memory.getAutoDefragCount(), "Automatic defrag count after failure");
+
+        String expected = "(60 , 40)\n(40 , 20) (0 , 40)\n";
+        assertString(expected, memory.toString(), "Automatic defrag state");
+    }
+
+    private static void testIncrementalDefrag() {
+        MemorySpace memory = new MemorySpace(100);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(20);
+        memory.malloc(20);
+        int addr4 = memory.malloc(20);
+        memory.free(addr2);
+        memory.free(addr1);
+        memory.free(addr4);
+
+        // The free list is (80 , 20) (20 , 20) (0 , 20) (60 , 20), and the first
+        // four units of work index it without merging
+        assertEqual(0, memory.defragStep(4) ? 1 : 0, "Pass incomplete while indexing");
+        assertLists("(80 , 20) (20 , 20) (0 , 20) (60 , 20)\n(40 , 20)\n", memory.toString(), "Indexing steps");
+        boolean complete = memory.defragStep(3);
+        assertLists("(80 , 20) (0 , 40) (60 , 20)\n(40 , 20)\n", memory.toString(), "First defrag steps");
+        assertEqual(0, complete ? 1 : 0, "Pass incomplete after three steps");
+
+        int steps = 3;
+        do {
+            steps ++;
+        } while (!memory.defragStep(1));
+        assertEqual(6, steps, "Units of work in a pass");
+        assertLists("(0 , 40) (60 , 40)\n(40 , 20)\n", memory.toString(), "After incremental defrag");
+    }
+
+    private static void testCompaction() {
+        CompactingMemorySpace memory = new CompactingMemorySpace(100);
+        int handle1 = memory.malloc(20);
+        int handle2 = memory.malloc(30);
+        int handle3 = memory.malloc(20);
+        int handle4 = memory.malloc(30);
+        memory.free(handle1);
+        memory.free(handle3);
+        assertEqual(-1, memory.malloc(40), "Malloc before compaction");
+
+        memory.compact();
+        assertEqual(0, memory.address(handle2), "Address of a moved block");
+        assertEqual(30, memory.address(handle4), "Address of another moved block");
+        assertString("(60 , 40)\n(0 , 30) (30 , 30)\n", memory.toString(), "Compacted state");
+
+        int handle5 = memory.malloc(40);
+        assertEqual(60, memory.address(handle5), "Malloc after compaction");
+    }
+
+    private static void testWordStorage() {
+        MemorySpace memory = new MemorySpace(100);
+        int address = memory.malloc(10);
+        memory.write(address, 9, 42);
+        memory.copyIn(address, 2, new int[] {7, 8, 9}, 0, 3);
+        int[] words = new int[4];
+        memory.copyOut(address, 1, words, 0, 4);
+        assertEqual(42, memory.read(address, 9), "Read a written word");
+        assertEqual(9, words[3], "Copy out copied words");
+        assertEqual(0, words[0], "Copy out an unwritten word");
+        assertEqual(4, (int) memory.getWordsWritten(), "Words written");
+        assertEqual(5, (int) memory.getWordsRead(), "Words read");
+
+        boolean rejected = false;
+        try {
+            memory.read(address, 10);
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assertEqual(1, rejected ? 1 : 0, "Read past the end of the block");
+
+        CompactingMemorySpace compacting = new CompactingMemorySpace(100);
+        int handle1 = compacting.malloc(30);
+        int handle2 = compacting.malloc(30);
+        compacting.write(handle2, 29, 5);
+        compacting.free(handle1);
+        compacting.compact();
+        assertEqual(5, compacting.read(handle2, 29), "Contents move with compaction");
+    }
+
+    private static void testOffHeapStorage() {
+        MemorySpace memory = new OffHeapMemorySpace(100);
+        int addr1 = memory.malloc(10);
+        int addr2 = memory.malloc(10);
+        memory.writeLong(addr2, 0, -5L);
+        memory.writeDouble(addr2, 2, 2.5);
+        memory.fill(addr2, 4, 6, 3);
+        assertEqual(-5, (int) memory.readLong(addr2, 0), "Read a long off the heap");
+        assertEqual(1, memory.readDouble(addr2, 2) == 2.5 ? 1 : 0, "Read a double off the heap");
+        assertEqual(3, memory.read(addr2, 9), "Read a filled word off the heap");
+
+        memory.free(addr1);
+        memory.compact();
+        assertEqual(3, memory.read(0, 4), "Contents move with off-heap compaction");
+        assertEqual(1, memory.readDouble(0, 2) == 2.5 ? 1 : 0, "Double moves with off-heap compaction");
+    }
+
+    private static void testMappedPersistence() {
+        try {
+            java.io.File file = java.io.File.createTempFile("memory", ".space");
+            file.deleteOnExit();
+            file.delete();
+            MappedMemorySpace memory = MappedMemorySpace.open(file.getPath(), 100, FitPolicy.NEXT_FIT, false);
+            int addr1 = memory.malloc(20);
+            int addr2 = memory.malloc(30);
+            memory.malloc(10);
+            memory.write(addr2, 29, 77);
+            memory.free(addr1);
+            String state = memory.toString();
+            memory.close();
+
+            MappedMemorySpace reopened = MappedMemorySpace.open(file.getPath(), 0);
+            assertString(state, reopened.toString(), "Reopened state");
+            assertEqual(77, reopened.read(addr2, 29), "Reopened contents");
+            assertEqual(60, reopened.malloc(5), "Reopened next fit resumes at the rover");
+            reopened.close();
+
+            // The same blocks as in testIncrementalDefrag, closed in the middle of a pass
+            file.delete();
+            memory = MappedMemorySpace.open(file.getPath(), 100);
+            addr1 = memory.malloc(20);
+            addr2 = memory.malloc(20);
+            memory.malloc(20);
+            int addr4 = memory.malloc(20);
+            memory.free(addr2);
+            memory.free(addr1);
+            memory.free(addr4);
+            memory.defragStep(4);
+            memory.defragStep(3);
+            memory.close();
+
+            reopened = MappedMemorySpace.open(file.getPath(), 0);
+            int steps = 0;
+            do {
+                steps ++;
+            } while (!reopened.defragStep(1));
+            assertEqual(3, steps, "Reopened defragmentation pass resumes");
+            assertLists("(0 , 40) (60 , 40)\n(40 , 20)\n", reopened.toString(), "Reopened after incremental defrag");
+            reopened.close();
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Mapped persistence: " + e);
+        }
+    }
+
+    private static void testSnapshot() {
+        try {
+            MemorySpace memory = new MemorySpace(1000, FitPolicy.NEXT_FIT, false);
+            int addr1 = memory.malloc(100);
+            memory.malloc(200);
+            int addr3 = memory.malloc(50);
+            memory.malloc(0);
+            memory.free(addr3);
+            memory.free(addr1);
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            memory.writeSnapshot(out);
+
+            MemorySpace restored = new MemorySpace(new java.io.ByteArrayInputStream(out.toByteArray()));
+            assertString(memory.toString(), restored.toString(), "Restored state");
+            assertEqual(memory.getMaxSize(), restored.getMaxSize(), "Restored size");
+            assertEqual(memory.malloc(10), restored.malloc(10), "Restored next fit resumes at the rover");
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Snapshot: " + e);
+        }
+    }
+
+    private static void testJournalRecovery() {
+        try {
+            java.io.File checkpoint = java.io.File.createTempFile("memory", ".checkpoint");
+            java.io.File journal = java.io.File.createTempFile("memory", ".journal");
+            checkpoint.deleteOnExit();
+            journal.deleteOnExit();
+            JournaledMemorySpace memory = JournaledMemorySpace.open(checkpoint.getPath(), journal.getPath(),
+                    100, FitPolicy.NEXT_FIT, false, 2);
+            int addr1 = memory.malloc(20);
+            memory.malloc(30);
+            memory.checkpoint();
+            memory.free(addr1);
+            memory.malloc(10);
+            memory.defrag();
+            assertEqual(3, (int) memory.getCommitCount(), "Group commits");
+            String state = memory.toString();
+            memory.close();
+
+            JournaledMemorySpace recovered = JournaledMemorySpace.open(checkpoint.getPath(), journal.getPath(), 0);
+            assertString(state, recovered.toString(), "Recovered state");
+            assertEqual(60, recovered.malloc(5), "Recovered next fit resumes at the rover");
+            recovered.close();
+
+            TlsfMemorySpace trace = new TlsfMemorySpace(100);
+            JournaledMemorySpace.replay(journal.getPath(), trace);
+            String expected = "(15 , 5) (50 , 50)\n(20 , 30) (0 , 10) (10 , 5)\n";
+            assertString(expected, trace.toString(), "Journal replayed as a trace");
+
+            journal.delete();
+            memory = JournaledMemorySpace.open(checkpoint.getPath(), journal.getPath(),
+                    100, FitPolicy.FIRST_FIT, false, 1);
+            memory.malloc(0);
+            MemoryRegion region = memory.openRegion(30);
+            addr1 = memory.malloc(10);
+            int addr2 = memory.malloc(10);
+            int addr3 = memory.malloc(10);
+            memory.free(addr3);
+            memory.free(addr1);
+            memory.free(addr2);
+            // Indexes the four free blocks, and moves the cursor past (60 , 40)
+            memory.defragStep(5);
+            memory.checkpoint();
+            memory.defragStep(2);
+            assertString("(50 , 50) (30 , 10) (40 , 10)\n(0 , 0) (0 , 30)\n", memory.toString(),
+                    "Checkpoint keeps the defragmentation pass");
+            memory.closeRegion(region);
+            state = memory.toString();
+            memory.close();
+
+            recovered = JournaledMemorySpace.open(checkpoint.getPath(), journal.getPath(), 0);
+            assertString(state, recovered.toString(), "Recovered region close");
+            assertEqual(100, (int) recovered.getFreeWords(), "Recovered region close frees the chunk");
+            recovered.close();
+        } catch (java.io.IOException e) {
+            throw new AssertionError("Journal recovery: " + e);
+        }
+    }
+
+    private static void testConcurrentArenas() {
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(100, 4, FitPolicy.FIRST_FIT, true);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(10);
+        assertEqual((addr1 / 25 + 1) % 4 * 25, addr2, "Full home arena spills to the next one");
+        assertEqual(-1, memory.malloc(26), "Longer than every arena");
+        memory.free(addr1);
+        memory.free(addr2);
+        String empty = "(0 , 25) (25 , 25) (50 , 25) (75 , 25)\n\n";
+        assertString(empty, memory.toString(), "Free routes to the owning arena");
+
+        // At most 16 blocks (32 words) are live, in at most 20 coalesced holes
+        Thread[] threads = new Thread[4];
+        final int[] failures = new int[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                int[] addresses = new int[4];
+                for (int i = 0; i < 20000; i++) {
+                    int slot = i % addresses.length;
+                    if (i >= addresses.length) {
+                        memory.free(addresses[slot]);
+                    }
+                    addresses[slot] = memory.malloc(1 + i % 2);
+                    if (addresses[slot] < 0) {
+                        synchronized (failures) {
+                            failures[0] ++;
+                        }
+                    }
+                }
+                for (int address : addresses) {
+                    memory.free(address);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError("Concurrent arenas: interrupted");
+            }
+        }
+        assertEqual(0, failures[0], "Concurrent mallocs never fail");
+        assertString(empty, memory.toString(), "Concurrent arenas end empty");
+    }
+
+    private static void testThreadCache() {
+        MemorySpace shared = new MemorySpace(100);
+        CachingMemorySpace memory = new CachingMemorySpace(shared, 64, 4);
+        int addr1 = memory.malloc(10);
+        assertEqual(30, addr1, "Refill allocates a batch, malloc takes the last block");
+        int addr2 = memory.malloc(10);
+        assertEqual(20, addr2, "Served by the cache");
+        memory.free(addr1);
+        assertEqual(addr1, memory.malloc(10), "Freed block is reused first");
+        memory.free(addr1);
+        memory.free(addr1);
+        assertEqual(30, memory.getCachedWords(), "Double free is ignored");
+        assertEqual(2, (int) memory.getHitCount(), "Cache hits");
+        assertEqual(1, (int) memory.getMissCount(), "Cache misses");
+
+        int[] addresses = new int[6];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = memory.malloc(5);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            memory.free(addresses[i]);
+        }
+        assertEqual(50, memory.getCachedWords(), "Exceeding the cap flushes half a stack");
+        memory.free(addr2);
+        memory.flush();
+        assertEqual(0, memory.getCachedWords(), "Flush empties the cache");
+        memory.defrag();
+        assertString("(0 , 100)\n\n", memory.toString(), "Flushed blocks are free");
+
+        shared = new MemorySpace(100);
+        shared.setAutoDefrag(true);
+        CachingMemorySpace stranded = new CachingMemorySpace(shared, 64, 4);
+        Thread thread = new Thread(() -> stranded.free(stranded.malloc(10)));
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new AssertionError("Thread cache: interrupted");
+        }
+        assertEqual(0, stranded.malloc(70), "The cache of an ended thread is reclaimed on failure");
+    }
+
+    private static void testRegion() {
+        MemorySpace memory = new MemorySpace(100, FitPolicy.FIRST_FIT, true);
+        int addr1 = memory.malloc(10);
+        MemoryRegion region = memory.openRegion(50);
+        assertEqual(10, region.malloc(20), "First block of the region");
+        assertEqual(30, region.malloc(25), "Bump allocation");
+        assertEqual(-1, region.malloc(6), "Region exhausted");
+        assertEqual(2, region.getBlockCount(), "Region block count");
+        assertLists("(60 , 40)\n(0 , 10) (10 , 50)\n", memory.toString(), "The region is one allocated block");
+
+        region.reset();
+        assertEqual(10, region.malloc(50), "Reset region reuses its chunk");
+        memory.free(addr1);
+        memory.closeRegion(region);
+        assertLists("(0 , 100)\n", memory.toString(), "Closed region returns its chunk");
+        try {
+            region.malloc(1);
+            throw new AssertionError("Malloc in a closed region should throw");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        memory = new MemorySpace(100);
+        int empty = memory.malloc(0);
+        region = memory.openRegion(50);
+        int block = region.malloc(10);
+        region.write(block, 9, 42);
+        assertEqual(42, region.read(block, 9), "Region blocks are readable");
+        memory.closeRegion(region);
+        memory.free(empty);
+        memory.defrag();
+        assertLists("(0 , 100)\n\n", memory.toString(), "Closing frees the chunk, not an older block at its address");
+
+        region = memory.openRegion(50);
+        memory.free(region.getBaseAddress());
+        assertEqual(1, region.isClosed() ? 1 : 0, "Freeing the chunk closes the region");
+    }
+
+    private static void testBlockPool() {
+        MemorySpace memory = new MemorySpace(100);
+        memory.malloc(10);
+        BlockPool pool = new BlockPool(memory, 8, 4);
+        assertEqual(10, pool.getBaseAddress(), "Pool region");
+        assertEqual(10, pool.allocate(), "First slot");
+        int slot2 = pool.allocate();
+        assertEqual(18, slot2, "Second slot");
+        pool.allocate();
+        pool.allocate();
+        assertEqual(-1, pool.allocate(), "Exhausted pool");
+        pool.release(slot2);
+        assertEqual(slot2, pool.allocate(), "Released slot is reused");
+        try {
+            pool.release(20);
+            throw new AssertionError("Release of an unaligned address should throw");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        BlockPool shared = new BlockPool(memory, 2, 16);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    int a = shared.allocate();
+                    int b = shared.allocate();
+                    shared.release(a);
+                    shared.release(b);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError("Block pool: interrupted");
+            }
+        }
+        java.util.Set<Integer> slots = new java.util.HashSet<Integer>();
+        for (int i = 0; i < 16; i++) {
+            slots.add(shared.allocate());
+        }
+        assertEqual(16, slots.size(), "Concurrent use keeps every slot exactly once");
+        assertEqual(-1, shared.allocate(), "No slot is duplicated");
+        shared.close();
+        pool.close();
+    }
+
+    private static void testDefragDaemon() {
+        ConcurrentMemorySpace memory = new ConcurrentMemorySpace(100, 2);
+        DefragDaemon daemon = new DefragDaemon(memory, 3, 0);
+        int[] addresses = new int[4];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = memory.malloc(10);
+        }
+        for (int i = 0; i < addresses.length; i++) {
+            memory.free(addresses[i]);
+        }
+        daemon.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (daemon.getPassCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            daemon.stop();
+        } catch (InterruptedException e) {
+            throw new AssertionError("Defrag daemon: interrupted");
+        }
+        assertEqual(1, (int) daemon.getPassCount(), "One pass for the grown arena");
+        assertString("(0 , 50) (50 , 50)\n\n", memory.toString(), "Daemon merged the free blocks");
+    }
+
+    private static void testShardStealing() {
+        ShardedMemorySpace memory = new ShardedMemorySpace(100, 2, FitPolicy.FIRST_FIT, false);
+        int addr1 = memory.malloc(40);
+        int home = addr1 / 50;
+        int other = 1 - home;
+        assertEqual(home * 50, addr1, "Allocated in the home shard");
+        int addr2 = memory.malloc(40);
+        assertEqual(other * 50 + 10, addr2, "Steals the upper part of the neighbor's block");
+        assertEqual(1, (int) memory.getStealCount(), "Steal count");
+        assertEqual(-1, memory.malloc(20), "No shard has 20 free words");
+        memory.free(addr1);
+        memory.free(addr2);
+        String expected = "(" + (home * 50) + " , 40) (" + (home * 50 + 40) + " , 10) (" + (other * 50)
+                + " , 10) (" + (other * 50 + 10) + " , 40)\n\n";
+        assertString(expected, memory.toString(), "Stolen block is freed in the thief's shard");
+        memory.defrag();
+        assertLists("(0 , 100)\n", memory.toString(), "Defrag merges the free blocks across the shards");
+        assertEqual(0, memory.malloc(100), "Allocates the whole memory after defrag");
+
+        // Coalescing shards do not merge a stolen block with its neighbors in the victim
+        memory = new ShardedMemorySpace(100, 2, FitPolicy.FIRST_FIT, true);
+        memory.free(memory.malloc(40));
+        memory.free(memory.malloc(40));
+        memory.defrag();
+        assertLists("(0 , 100)\n", memory.toString(), "Defrag merges coalesced blocks across the shards");
+        assertEqual(0, memory.malloc(60), "Allocates more than a shard's range after defrag");
+    }
+
+    private static void testCoalescingFree() {
+        MemorySpace memory = new MemorySpace(100, true);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(20);
+        int addr3 = memory.malloc(20);
+        memory.malloc(20);
+
+        memory.free(addr3);
+        memory.free(addr1);
+        String expected = "(0 , 20) (40 , 20) (80 , 20)\n(20 , 20) (60 , 20)\n";
+        assertLists(expected, memory.toString(), "Coalescing free, no neighbors");
+
+        memory.free(addr2);
+        expected = "(0 , 60) (80 , 20)\n(60 , 20)\n";
+        assertLists(expected, memory.toString(), "Coalescing free, both neighbors");
+    }
+
+    private static void testSegregatedFit() {
+        MemorySpace memory = new MemorySpace(200, FitPolicy.SEGREGATED_FIT);
+        int addr1 = memory.malloc(16);
+        memory.malloc(8);
+        int addr3 = memory.malloc(8);
+        memory.malloc(8);
+        memory.free(addr1);
+        memory.free(addr3);
+
+        // The freed 8-word block fits exactly, even though a 16-word block comes first
+        int address = memory.malloc(8);
+        assertEqual(24, address, "Segregated fit takes the exact size class");
+        assertEqual(0, memory.malloc(10), "Segregated fit takes the next non-empty class");
+        assertEqual(-1, memory.malloc(161), "Segregated fit failure");
+
+        String expected = "(10 , 6) (40 , 160)\n(16 , 8) (32 , 8) (24 , 8) (0 , 10)\n";
+        assertString(expected, memory.toString(), "Segregated fit state");
+    }
+
+    private static void testBestFit() {
+        MemorySpace memory = new MemorySpace(100, FitPolicy.BEST_FIT);
+        int addr1 = memory.malloc(30);
+        memory.malloc(10);
+        int addr3 = memory.malloc(12);
+        memory.malloc(10);
+        memory.free(addr1);
+        memory.free(addr3);
+
+        assertEqual(40, memory.malloc(11), "Best fit takes the shortest sufficient block");
+        assertEqual(0, memory.malloc(30), "Best fit takes an exact fit");
+        assertEqual(62, memory.malloc(38), "Best fit takes the last sufficient block");
+
+        String expected = "(51 , 1)\n(30 , 10) (52 , 10) (40 , 11) (0 , 30) (62 , 38)\n";
+        assertString(expected, memory.toString(), "Best fit state");
+    }
+
+    private static void testAddressOrderedFit() {
+        MemorySpace memory = new MemorySpace(100, FitPolicy.ADDRESS_ORDERED_FIT, true);
+        int addr1 = memory.malloc(10);
+        int addr2 = memory.malloc(20);
+        int addr3 = memory.malloc(10);
+        memory.malloc(10);
+        memory.free(addr3);
+        memory.free(addr1);
+        memory.free(addr2);
+
+        String expected = "(0 , 40) (50 , 50)\n(40 , 10)\n";
+        assertString(expected, memory.toString(), "Address-ordered fit coalesces through the tree");
+        assertEqual(0, memory.malloc(35), "Lowest block that is long enough");
+        assertEqual(50, memory.malloc(6), "Skips the blocks that are too short");
+        assertEqual(35, memory.malloc(5), "Takes an exact fit at the lowest address");
+        assertEqual(-1, memory.malloc(45), "Rejected by the tree's root");
+    }
+
+    private static void testFastRejection() {
+        MemorySpace memory = new MemorySpace(100);
+        int addr1 = memory.malloc(60);
+        assertEqual(-1, memory.malloc(50), "Rejected after a full scan");
+        assertEqual(0, (int) memory.getFastRejectionCount(), "The first rejection scans");
+        assertEqual(-1, memory.malloc(50), "Rejected by the running maximum");
+        assertEqual(1, (int) memory.getFastRejectionCount(), "Fast rejection count");
+        assertEqual(2, (int) memory.getNodesScanned(), "A fast rejection scans no nodes");
+
+        memory.free(addr1);
+        assertEqual(0, memory.malloc(50), "A free raises the running maximum");
+        assertEqual(-1, memory.malloc(61), "Longer than every free block");
+        assertEqual(2, (int) memory.getFastRejectionCount(), "Fast rejection after a free");
+
+        MemorySpace best = new MemorySpace(100, FitPolicy.BEST_FIT, false);
+        best.malloc(70);
+        assertEqual(-1, best.malloc(40), "Best fit failure");
+        assertEqual(-1, best.malloc(40), "Best fit fast rejection");
+        assertEqual(1, (int) best.getFastRejectionCount(), "A failed index search lowers the maximum");
+    }
+
+    private static void testNextFit() {
+        MemorySpace memory = new MemorySpace(100, FitPolicy.NEXT_FIT, true);
+        int addr1 = memory.malloc(10);
+        memory.malloc(10);
+        memory.malloc(10);
+        memory.free(addr1);
+
+        assertEqual(30, memory.malloc(5), "Next fit resumes where the last search ended");
+        assertEqual(-1, memory.malloc(80), "Next fit failure");
+        assertEqual(5, (int) memory.getMallocCount(), "Malloc count");
+        assertEqual(6, (int) memory.getNodesScanned(), "Nodes scanned by next fit");
+
+        String expected = "(0 , 10) (35 , 65)\n(10 , 10) (20 , 10) (30 , 5)\n";
+        assertLists(expected, memory.toString(), "Next fit state");
+        assertEqual(35, memory.malloc(5), "A failed search leaves the rover in place");
+    }
+
+    private static void testBuddy() {
+        BuddyMemorySpace buddy = new BuddyMemorySpace(100);
+        assertString("(96 , 4) (64 , 32) (0 , 64)\n", buddy.toString(), "Buddy initialization");
+
+        Allocator memory = new BuddyMemorySpace(128);
+        int addr1 = memory.malloc(20);
+        int addr2 = memory.malloc(30);
+        assertEqual(0, addr1, "Buddy first allocation");
+        assertEqual(32, addr2, "Buddy second allocation");
+        assertEqual(-1, memory.malloc(65), "Buddy allocation failure");
+        assertEqual(14, (int) ((BuddyMemorySpace) memory).getInternalFragmentation(), "Buddy internal fragmentation");
+        assertString("(64 , 64)\n(0 , 20) (32 , 30)\n", memory.toString(), "Buddy allocation state");
+
+        memory.free(addr1);
+        memory.free(addr2);
+        assertString("(0 , 128)\n", memory.toString(), "Buddy merging");
+    }
+
+    private static void testTlsf() {
+        Allocator memory = new TlsfMemorySpace(100);
+        int addr1 = memory.malloc(10);
+        int addr2 = memory.malloc(20);
+        int addr3 = memory.malloc(30);
+        assertEqual(0, addr1, "TLSF first allocation");
+        assertEqual(10, addr2, "TLSF second allocation");
+        assertEqual(30, addr3, "TLSF third allocation");
+        assertEqual(-1, memory.malloc(41), "TLSF allocation failure");
+
+        memory.free(addr1);
+        memory.free(addr3);
+        assertString("(0 , 10) (30 , 70)\n(10 , 20)\n", memory.toString(), "TLSF coalescing with the right neighbor");
+
+        memory.free(addr2);
+        assertString("(0 , 100)\n", memory.toString(), "TLSF coalescing with both neighbors");
+    }
+
+    private static void testBitmap() {
+        BitmapMemorySpace memory = new BitmapMemorySpace(200);
+        int addr1 = memory.malloc(60);
+        int addr2 = memory.malloc(70);
+        int addr3 = memory.malloc(50);
+        assertEqual(60, addr2, "Bitmap allocation across 64-word boundaries");
+        memory.free(addr2);
+        assertString("(60 , 70) (180 , 20)\n(0 , 60) (130 , 50)\n", memory.toString(), "Bitmap free runs");
+        assertEqual(-1, memory.malloc(71), "Bitmap allocation failure");
+        assertEqual(60, memory.malloc(65), "Lowest free run that is long enough");
+        assertEqual(25, (int) memory.getFreeWords(), "Bitmap free words");
+
+        memory.free(addr1);
+        memory.free(addr3);
+        memory.free(60);
+        assertString("(0 , 200)\n", memory.toString(), "Freed runs join their neighbors");
+    }
+
     private static void testComplexScenario() {
         MemorySpace memory = new MemorySpace(100);
         memory.malloc(20); // Allocates at address 0
@@ -129,6 +818,17 @@ public class TestMemorySpace {
         }
     }
 
+    // Compares the free and allocated lists block by block, in order, unlike
+    // assertString, which ignores the order of the blocks and the list they are in.
+    // Only the white space at the ends of the lines is ignored.
+    private static void assertLists(String expected, String actual, String message) {
+        String trimmedExpected = expected.replaceAll(" +\n", "\n").replaceAll("\\s+$", "");
+        String trimmedActual = actual.replaceAll(" +\n", "\n").replaceAll("\\s+$", "");
+        if (!trimmedExpected.equals(trimmedActual)) {
+            throw new AssertionError(message + ":\nExpected: " + trimmedExpected + "\nActual: " + trimmedActual);
+        }
+    }
+
     private static String normalizeString(String input) {
         return input.replaceAll("\\s+", "").toLowerCase();
     }
@@ -0,0 +1,202 @@
+/**
+ * Represents a managed memory space that uses two-level segregated fit (TLSF).
+ * <p>
+ * Free blocks are kept in size classes. The first level splits the lengths by
+ * powers of two, and the second level splits each power-of-two range into
+ * SECOND_LEVELS equal sub-ranges (lengths below SECOND_LEVELS words have exact
+ * classes). One bitmap records which first-level ranges have a non-empty class,
+ * and one bitmap per range records which of its classes are non-empty. malloc
+ * rounds the request up to the next class boundary, so that every block in the
+ * class it searches is long enough, and finds that class with two
+ * numberOfTrailingZeros operations. free merges the block with its free neighbors
+ * right away, finding them by their start and end addresses. Neither operation
+ * loops over blocks, so both take constant time, whatever the state of the memory.
+ */
+public class TlsfMemorySpace implements Allocator {
+
+	// log2 of the number of second-level classes per first-level range
+	private static final int SECOND_LEVEL_LOG = 4;
+
+	// The number of second-level classes per first-level range
+	private static final int SECOND_LEVELS = 1 << SECOND_LEVEL_LOG;
+
+	// The number of first-level ranges: one for the exact classes, and one for each
+	// power of two from SECOND_LEVELS up to 2^30
+	private static final int FIRST_LEVELS = 31 - SECOND_LEVEL_LOG + 1;
+
+	// The free blocks of each class; class (fl, sl) is at index fl * SECOND_LEVELS + sl
+	private LinkedList[] freeLists;
+
+	// Bit fl is set if and only if some class of first-level range fl is non-empty
+	private long firstLevelMap;
+
+	// Bit sl of entry fl is set if and only if class (fl, sl) is non-empty
+	private long[] secondLevelMaps;
+
+	// Map the start address and the end address of each free block to its free-list node
+	private AddressIndex freeStarts;
+	private AddressIndex freeEnds;
+
+	// A list of the memory blocks that are presently allocated
+	private LinkedList allocatedList;
+
+	// Maps the base address of each allocated block to its node in the allocatedList
+	private AddressIndex allocatedIndex;
+
+	/**
+	 * Constructs a new managed memory space of a given maximal size.
+	 *
+	 * @param maxSize
+	 *            the size of the memory space to be managed
+	 */
+	public TlsfMemorySpace(int maxSize) {
+		freeLists = new LinkedList[FIRST_LEVELS * SECOND_LEVELS];
+		for (int i = 0; i < freeLists.length; i++) {
+			freeLists[i] = new LinkedList();
+		}
+		secondLevelMaps = new long[FIRST_LEVELS];
+		freeStarts = new AddressIndex();
+		freeEnds = new AddressIndex();
+		allocatedList = new LinkedList();
+		allocatedIndex = new AddressIndex();
+		if (maxSize > 0) {
+			addFree(new MemoryBlock(0, maxSize));
+		}
+	}
+
+	/**
+	 * Allocates a memory block of a requested length (in words). Returns the
+	 * base address of the allocated block, or -1 if unable to allocate.
+	 * A request for less than one word is served with a one-word block.
+	 * The found free block is split: its start is allocated, and the rest of it
+	 * is returned to the free lists.
+	 *
+	 * @param length
+	 *        the length (in words) of the memory block that has to be allocated
+	 * @return the base address of the allocated block, or -1 if unable to allocate
+	 */
+	public int malloc(int length) {
+		length = Math.max(length, 1);
+		// Rounds the length up to the next class boundary
+		int log = 31 - Integer.numberOfLeadingZeros(length);
+		long rounded = length;
+		if (log >= SECOND_LEVEL_LOG) {
+			rounded += (1L << (log - SECOND_LEVEL_LOG)) - 1;
+		}
+		if (rounded > Integer.MAX_VALUE) {
+			return -1;
+		}
+		int index = classOf((int) rounded);
+		int fl = index / SECOND_LEVELS;
+		long slMap = secondLevelMaps[fl] & (-1L << (index % SECOND_LEVELS));
+		if (slMap == 0) {
+			long flMap = firstLevelMap & (-1L << (fl + 1));
+			if (flMap == 0) {
+				return -1;
+			}
+			fl = Long.numberOfTrailingZeros(flMap);
+			slMap = secondLevelMaps[fl];
+		}
+		Node found = freeLists[fl * SECOND_LEVELS + Long.numberOfTrailingZeros(slMap)].getFirst();
+		MemoryBlock block = found.block;
+		removeFree(found);
+		if (block.length > length) {
+			addFree(new MemoryBlock(block.baseAddress + length, block.length - length));
+			block.length = length;
+		}
+		allocatedList.addLast(block);
+		allocatedIndex.putIfAbsent(block.baseAddress, allocatedList.getLast());
+		return block.baseAddress;
+	}
+
+	/**
+	 * Frees the memory block whose base address equals the given address, and
+	 * merges it with the free blocks that end where it begins and begin where it ends.
+	 * If no allocated block starts at the given address, nothing happens.
+	 *
+	 * @param address
+	 *            the starting address of the block to free
+	 * @throws IllegalArgumentException
+	 *         if there are no allocated blocks
+	 */
+	public void free(int address) {
+		if (allocatedList.getSize() == 0) {
+			throw new IllegalArgumentException(
+					"index must be between 0 and size");
+		}
+		Node current = allocatedIndex.remove(address);
+		if (current == null) {
+			return;
+		}
+		allocatedList.remove(current);
+		MemoryBlock block = current.block;
+		Node left = freeEnds.get(block.baseAddress);
+		if (left != null) {
+			removeFree(left);
+			block.baseAddress = left.block.baseAddress;
+			block.length += left.block.length;
+		}
+		Node right = freeStarts.get(block.baseAddress + block.length);
+		if (right != null) {
+			removeFree(right);
+			block.length += right.block.length;
+		}
+		addFree(block);
+	}
+
+	/**
+	 * Does nothing: free blocks are merged with their neighbors as soon as they
+	 * are freed, so there are never two adjacent free blocks.
+	 */
+	public void defrag() {
+	}
+
+	/**
+	 * A textual representation of the free lists (from the shortest classes to
+	 * the longest ones) and the allocated list of this memory space, for debugging purposes.
+	 */
+	public String toString() {
+		String str = "";
+		for (int i = 0; i < freeLists.length; i++) {
+			str += freeLists[i].toString();
+		}
+		return str + "\n" + allocatedList.toString();
+	}
+
+	// Returns the index of the class of the given (positive) length.
+	private static int classOf(int length) {
+		if (length < SECOND_LEVELS) {
+			return length;
+		}
+		int log = 31 - Integer.numberOfLeadingZeros(length);
+		int fl = log - SECOND_LEVEL_LOG + 1;
+		int sl = (length >>> (log - SECOND_LEVEL_LOG)) - SECOND_LEVELS;
+		return fl * SECOND_LEVELS + sl;
+	}
+
+	// Adds the given block to the free list of its class.
+	private void addFree(MemoryBlock block) {
+		int index = classOf(block.length);
+		freeLists[index].addFirst(block);
+		freeStarts.putIfAbsent(block.baseAddress, freeLists[index].getFirst());
+		freeEnds.putIfAbsent(block.baseAddress + block.length, freeLists[index].getFirst());
+		int fl = index / SECOND_LEVELS;
+		secondLevelMaps[fl] |= 1L << (index % SECOND_LEVELS);
+		firstLevelMap |= 1L << fl;
+	}
+
+	// Removes the given node from the free list of its class.
+	private void removeFree(Node node) {
+		int index = classOf(node.block.length);
+		freeLists[index].remove(node);
+		freeStarts.remove(node.block.baseAddress);
+		freeEnds.remove(node.block.baseAddress + node.block.length);
+		if (freeLists[index].getSize() == 0) {
+			int fl = index / SECOND_LEVELS;
+			secondLevelMaps[fl] &= ~(1L << (index % SECOND_LEVELS));
+			if (secondLevelMaps[fl] == 0) {
+				firstLevelMap &= ~(1L << fl);
+			}
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ * The storage behind the words of a MemorySpace. Words are addressed by their
+ * index, from 0 to the size of the memory space. The store does no bounds
+ * checking of its own beyond that: MemorySpace checks every access against the
+ * owning allocation before it reaches the store.
+ */
+public interface WordStore {
+
+	/**
+	 * Reads the word at the given index.
+	 * 
+	 * @param index
+	 *        the index of the word
+	 * @return the value of the word
+	 */
+	int read(int index);
+
+	/**
+	 * Writes the word at the given index.
+	 * 
+	 * @param index
+	 *        the index of the word
+	 * @param value
+	 *        the value to write
+	 */
+	void write(int index, int value);
+
+	/**
+	 * Copies consecutive words from an array into this store.
+	 * 
+	 * @param index
+	 *        the index in this store of the first word to write
+	 * @param source
+	 *        the array to copy from
+	 * @param sourceOffset
+	 *        the index in the array of the first word to copy
+	 * @param count
+	 *        the number of words to copy
+	 */
+	void copyIn(int index, int[] source, int sourceOffset, int count);
+
+	/**
+	 * Copies consecutive words from this store into an array.
+	 * 
+	 * @param index
+	 *        the index in this store of the first word to read
+	 * @param target
+	 *        the array to copy to
+	 * @param targetOffset
+	 *        the index in the array at which to store the first word
+	 * @param count
+	 *        the number of words to copy
+	 */
+	void copyOut(int index, int[] target, int targetOffset, int count);
+
+	/**
+	 * Copies consecutive words within this store. The source and the target
+	 * ranges may overlap.
+	 * 
+	 * @param from
+	 *        the index of the first word to copy
+	 * @param to
+	 *        the index to copy the first word to
+	 * @param count
+	 *        the number of words to copy
+	 */
+	void move(int from, int to, int count);
+
+	/**
+	 * Sets consecutive words of this store to the given value.
+	 * 
+	 * @param index
+	 *        the index of the first word to set
+	 * @param count
+	 *        the number of words to set
+	 * @param value
+	 *        the value to set
+	 */
+	void fill(int index, int count, int value);
+
+	/**
+	 * Reads a long that occupies the two words at the given index and the next
+	 * one, the high half first.
+	 * 
+	 * @param index
+	 *        the index of the first word
+	 * @return the value of the long
+	 */
+	default long readLong(int index) {
+		return ((long) read(index) << 32) | (read(index + 1) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Writes a long into the two words at the given index and the next one,
+	 * the high half first.
+	 * 
+	 * @param index
+	 *        the index of the first word
+	 * @param value
+	 *        the value to write
+	 */
+	default void writeLong(int index, long value) {
+		write(index, (int) (value >>> 32));
+		write(index + 1, (int) value);
+	}
+}